@@ -0,0 +1,128 @@
+package com.baezcostiganreed.mathtutorapp.benchmarks;
+
+import com.baezcostiganreed.mathtutorapp.AnswerCache;
+import com.baezcostiganreed.mathtutorapp.AssembledPrompt;
+import com.baezcostiganreed.mathtutorapp.ContentHash;
+import com.baezcostiganreed.mathtutorapp.InMemorySessionStore;
+import com.baezcostiganreed.mathtutorapp.PromptAssembler;
+import com.baezcostiganreed.mathtutorapp.PromptTurn;
+import com.baezcostiganreed.mathtutorapp.RetrievalCache;
+import com.baezcostiganreed.mathtutorapp.SessionTurn;
+import com.baezcostiganreed.mathtutorapp.Topic;
+import com.baezcostiganreed.mathtutorapp.TopicCatalog;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+
+/**
+ * The per-request work of {@code ChatService} that runs before the model is called: building the cache keys,
+ * resolving the topic filter, trimming the session history and assembling the messages within the token budget.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatRequestBenchmark {
+    private static final String TOPIC = "Fractions";
+    private static final String QUESTION = "How do I find the least common denominator of 1/3 and 1/4?";
+    private static final int MAX_HISTORY = 10;
+
+    /**
+     * The number of earlier turns whose question and chapter text compete for the token budget. The session
+     * store always holds a full session, which is its steady state in a long conversation.
+     */
+    @Param({"0", "10"})
+    public int historyTurns;
+
+    private TopicCatalog topicCatalog;
+    private PromptAssembler promptAssembler;
+    private InMemorySessionStore sessionStore;
+    private String systemPrompt;
+    private String fingerprint;
+    private String context;
+    private List<String> documentIds;
+    private List<PromptTurn> history;
+
+    @Setup
+    public void setUp() throws IOException {
+        topicCatalog = new TopicCatalog(new ClassPathResource("topics/catalog.json"), new ObjectMapper(), event -> {
+        });
+        topicCatalog.load();
+        promptAssembler = new PromptAssembler(3000, 4, new SimpleMeterRegistry());
+        sessionStore = new InMemorySessionStore(Duration.ofMinutes(30), 32 << 20);
+        systemPrompt = String.format(new ClassPathResource("prompts/prompt_template.txt").getContentAsString(StandardCharsets.UTF_8), TOPIC);
+        fingerprint = ContentHash.of(systemPrompt);
+        context = Fixtures.paragraphs(3, 180);
+        documentIds = List.of("3f1c2a9e-0b6d-4c1e-9a57-1d2b3c4d5e6f", "7a8b9c0d-1e2f-4a3b-8c5d-6e7f8a9b0c1d",
+                "0d1e2f3a-4b5c-4d6e-8f7a-8b9c0d1e2f3a");
+        history = IntStream.range(0, historyTurns)
+                .mapToObj(i -> new PromptTurn("Earlier question number " + i + " about adding fractions with unlike denominators?",
+                        Fixtures.paragraphs(3, 180)))
+                .toList();
+        for (int i = 0; i < MAX_HISTORY; i++) {
+            sessionStore.appendAndSnapshot("session", new SessionTurn("Earlier question " + i, documentIds), MAX_HISTORY);
+        }
+    }
+
+    @Benchmark
+    public String retrievalCacheKey() {
+        return RetrievalCache.key(TOPIC, QUESTION);
+    }
+
+    @Benchmark
+    public String answerCacheKey() {
+        return AnswerCache.key(TOPIC, QUESTION, documentIds, fingerprint);
+    }
+
+    @Benchmark
+    public Optional<Topic> topicResolution() {
+        return topicCatalog.find(TOPIC);
+    }
+
+    @Benchmark
+    public List<SessionTurn> historyTrimming() {
+        return sessionStore.appendAndSnapshot("session", new SessionTurn(QUESTION, documentIds), MAX_HISTORY);
+    }
+
+    @Benchmark
+    public AssembledPrompt messageAssembly() {
+        return promptAssembler.assemble(systemPrompt, history, new PromptTurn(QUESTION, context));
+    }
+
+    /**
+     * All of the above, in the order a request runs them.
+     */
+    @Benchmark
+    public void request(Blackhole blackhole) {
+        Topic topic = topicCatalog.find(TOPIC).orElseThrow();
+        blackhole.consume(topic.filterExpression());
+        blackhole.consume(RetrievalCache.key(topic.name(), QUESTION));
+        List<SessionTurn> turns = sessionStore.appendAndSnapshot("session", new SessionTurn(QUESTION, documentIds), MAX_HISTORY);
+        List<PromptTurn> earlier = history.subList(history.size() - Math.min(history.size(), turns.size()), history.size());
+        blackhole.consume(promptAssembler.assemble(systemPrompt, earlier, new PromptTurn(QUESTION, context)));
+        blackhole.consume(AnswerCache.key(topic.name(), QUESTION, documentIds, fingerprint));
+    }
+}
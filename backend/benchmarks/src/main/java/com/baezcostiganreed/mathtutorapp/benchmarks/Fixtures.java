@@ -0,0 +1,52 @@
+package com.baezcostiganreed.mathtutorapp.benchmarks;
+
+import java.util.Random;
+
+
+/**
+ * Deterministic fixtures, so every run of a benchmark works on the same data.
+ */
+final class Fixtures {
+    private static final String[] WORDS = {
+            "fraction", "numerator", "denominator", "equivalent", "multiply", "divide", "least", "common",
+            "multiple", "factor", "prime", "simplify", "the", "and", "of", "to", "a", "is", "by", "each",
+            "equation", "variable", "solve", "both", "sides", "subtract", "add", "integer", "negative", "sum"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return paragraphs of math-textbook-like text with the given number of words each
+     */
+    static String paragraphs(int count, int wordsPerParagraph) {
+        Random random = new Random(count * 31L + wordsPerParagraph);
+        StringBuilder text = new StringBuilder();
+        for (int p = 0; p < count; p++) {
+            for (int w = 0; w < wordsPerParagraph; w++) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(w % 12 == 11 ? ". " : " ");
+            }
+            text.append("\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return unit-length vectors drawn from a Gaussian, the way normalized embeddings are spread
+     */
+    static float[][] vectors(int count, int dimensions, long seed) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[count][dimensions];
+        for (float[] vector : vectors) {
+            double norm = 0;
+            for (int d = 0; d < dimensions; d++) {
+                vector[d] = (float) random.nextGaussian();
+                norm += vector[d] * vector[d];
+            }
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int d = 0; d < dimensions; d++) {
+                vector[d] *= scale;
+            }
+        }
+        return vectors;
+    }
+}
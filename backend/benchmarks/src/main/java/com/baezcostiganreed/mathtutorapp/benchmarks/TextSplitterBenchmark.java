@@ -0,0 +1,71 @@
+package com.baezcostiganreed.mathtutorapp.benchmarks;
+
+import com.baezcostiganreed.mathtutorapp.PdfPageReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.reader.ExtractedTextFormatter;
+import org.springframework.ai.reader.pdf.config.PdfDocumentReaderConfig;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Chunking of a real textbook with the {@link TokenTextSplitter} settings of the ingestion. The pages are
+ * extracted once in the setup with the ingestion's reader configuration, so only the splitting is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TextSplitterBenchmark {
+    /**
+     * The textbook to chunk, relative to the benchmarks directory.
+     */
+    @Param("../src/main/resources/docs/pdf/Beginning_and_Intermediate_Algebra.pdf")
+    public String pdf;
+
+    /**
+     * The number of pages chunked per invocation, read from the start of the book.
+     */
+    @Param("50")
+    public int pages;
+
+    private List<Document> documents;
+    private TokenTextSplitter textSplitter;
+
+    @Setup
+    public void setUp() throws IOException {
+        PdfDocumentReaderConfig config = PdfDocumentReaderConfig.builder()
+                .withPageExtractedTextFormatter(new ExtractedTextFormatter.Builder()
+                        .withNumberOfBottomTextLinesToDelete(0)
+                        .withNumberOfTopPagesToSkipBeforeDelete(0)
+                        .build())
+                .withPagesPerDocument(1)
+                .build();
+        try (PdfPageReader reader = new PdfPageReader(new FileSystemResource(pdf), config)) {
+            documents = reader.next(pages);
+        }
+        textSplitter = TokenTextSplitter.builder().build();
+    }
+
+    @Benchmark
+    public List<Document> split() {
+        return textSplitter.apply(documents);
+    }
+}
@@ -0,0 +1,145 @@
+package com.baezcostiganreed.mathtutorapp.benchmarks;
+
+import com.baezcostiganreed.mathtutorapp.HnswVectorStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Top-k similarity search over a fixture of 768-dimensional vectors, the size nomic-embed-text produces.
+ * The brute-force scan is the lower bound for an exact in-memory search; {@link SimpleVectorStore} is Spring AI's
+ * in-memory store, given an embedding model that looks the query vector up instead of calling Ollama.
+ * {@link HnswVectorStore} is searched through its graph, with the one-by-one comparison of small filters turned off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorSearchBenchmark {
+    private static final int DIMENSIONS = 768;
+    private static final int TOP_K = 3;
+    private static final String QUERY = "query";
+
+    /**
+     * The number of stored chunks.
+     */
+    @Param({"10000"})
+    public int chunks;
+
+    private float[][] vectors;
+    private float[] query;
+    private SimpleVectorStore vectorStore;
+    private HnswVectorStore hnswVectorStore;
+
+    @Setup
+    public void setUp() {
+        vectors = Fixtures.vectors(chunks, DIMENSIONS, 42);
+        query = Fixtures.vectors(1, DIMENSIONS, 7)[0];
+
+        Map<String, float[]> embeddings = new HashMap<>();
+        embeddings.put(QUERY, query);
+        List<Document> documents = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            String text = "chunk " + i;
+            embeddings.put(text, vectors[i]);
+            documents.add(new Document(text));
+        }
+        vectorStore = SimpleVectorStore.builder(new FixtureEmbeddingModel(embeddings)).build();
+        vectorStore.add(documents);
+        hnswVectorStore = new HnswVectorStore(null, new ObjectMapper(), 16, 200, 64, 0,
+                Path.of("target/vector-index.hnsw"), false);
+        hnswVectorStore.replace(documents, Arrays.asList(vectors), null);
+    }
+
+    @Benchmark
+    public int[] bruteForce() {
+        int[] best = new int[TOP_K];
+        float[] bestScores = new float[TOP_K];
+        Arrays.fill(bestScores, Float.NEGATIVE_INFINITY);
+        for (int i = 0; i < vectors.length; i++) {
+            float[] vector = vectors[i];
+            float score = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                score += vector[d] * query[d];
+            }
+            if (score > bestScores[TOP_K - 1]) {
+                int slot = TOP_K - 1;
+                while (slot > 0 && score > bestScores[slot - 1]) {
+                    bestScores[slot] = bestScores[slot - 1];
+                    best[slot] = best[slot - 1];
+                    slot--;
+                }
+                bestScores[slot] = score;
+                best[slot] = i;
+            }
+        }
+        return best;
+    }
+
+    @Benchmark
+    public List<Document> simpleVectorStore() {
+        return vectorStore.similaritySearch(SearchRequest.builder().query(QUERY).topK(TOP_K).build());
+    }
+
+    @Benchmark
+    public List<Document> hnswVectorStore() {
+        return hnswVectorStore.similaritySearch(query, TOP_K, SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL, null);
+    }
+
+    /**
+     * Returns the fixture vector of every text.
+     */
+    private static final class FixtureEmbeddingModel implements EmbeddingModel {
+        private final Map<String, float[]> embeddings;
+
+        private FixtureEmbeddingModel(Map<String, float[]> embeddings) {
+            this.embeddings = embeddings;
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> results = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                results.add(new Embedding(embeddings.get(text), results.size()));
+            }
+            return new EmbeddingResponse(results);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embeddings.get(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return DIMENSIONS;
+        }
+    }
+}
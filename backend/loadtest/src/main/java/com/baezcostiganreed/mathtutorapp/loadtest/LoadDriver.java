@@ -0,0 +1,224 @@
+package com.baezcostiganreed.mathtutorapp.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+
+/**
+ * Simulates students talking to a running MathTutorApp. Every student is a virtual thread with a session of its
+ * own that asks the questions of one scripted conversation in turn, pausing between answers as a reader would.
+ * Students join evenly spread over the ramp-up period. For every answer the driver records the time to the first
+ * delta event, the time to the done event and the generated tokens; the heap of the application is read from its
+ * metrics endpoint before, during and after the run.
+ */
+public final class LoadDriver {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Settings settings;
+    private final HttpClient httpClient;
+
+    public LoadDriver(Settings settings) {
+        this.settings = settings;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    /**
+     * Runs the simulation and waits for every student to finish.
+     *
+     * @return the latencies, throughput and heap growth of the run
+     */
+    public LoadReport run() throws IOException, InterruptedException {
+        List<Conversation> conversations = conversations();
+        String runId = UUID.randomUUID().toString().substring(0, 8);
+        List<LoadReport.Sample> samples = new ArrayList<>();
+
+        long heapBefore = metric("jvm.memory.used", "area:heap");
+        long liveBefore = metric("jvm.gc.live.data.size", null);
+        AtomicLong peakHeap = new AtomicLong(heapBefore);
+        Thread sampler = Thread.ofVirtual().start(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(1000);
+                    peakHeap.accumulateAndGet(metric("jvm.memory.used", "area:heap"), Math::max);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        System.out.println("Driving " + settings.students() + " students with " + settings.turns() + " turns each against "
+                + settings.url() + " (run " + runId + ")");
+        long start = System.nanoTime();
+        try (ExecutorService students = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < settings.students(); i++) {
+                int student = i;
+                Duration joinAfter = settings.rampUp().multipliedBy(student).dividedBy(settings.students());
+                students.execute(() -> {
+                    try {
+                        Thread.sleep(joinAfter);
+                        Conversation conversation = conversations.get(student % conversations.size());
+                        String sessionId = "loadtest-" + runId + "-" + student;
+                        for (int turn = 0; turn < settings.turns(); turn++) {
+                            if (turn > 0) {
+                                Thread.sleep(settings.thinkTime());
+                            }
+                            String question = conversation.questions().get(turn % conversation.questions().size());
+                            LoadReport.Sample sample = ask(conversation.topic(), question, sessionId);
+                            synchronized (samples) {
+                                samples.add(sample);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        sampler.interrupt();
+        sampler.join();
+
+        long heapAfter = metric("jvm.memory.used", "area:heap");
+        long liveAfter = metric("jvm.gc.live.data.size", null);
+        return new LoadReport(samples, elapsed, heapBefore, Math.max(peakHeap.get(), heapAfter), heapAfter, liveBefore, liveAfter);
+    }
+
+    /**
+     * Asks one question and reads the answer's event stream to its end.
+     */
+    private LoadReport.Sample ask(String topic, String question, String sessionId) {
+        URI uri = URI.create(settings.url() + "/chat?topic=" + encode(topic) + "&usermessage=" + encode(question)
+                + "&sessionId=" + encode(sessionId));
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Accept", "text/event-stream")
+                .timeout(settings.timeout())
+                .GET()
+                .build();
+        long start = System.nanoTime();
+        long firstToken = -1;
+        try {
+            HttpResponse<Stream<String>> response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                return LoadReport.Sample.failed("http " + response.statusCode(), System.nanoTime() - start);
+            }
+            try (Stream<String> lines = response.body()) {
+                String event = null;
+                Iterator<String> iterator = lines.iterator();
+                while (iterator.hasNext()) {
+                    String line = iterator.next();
+                    if (line.startsWith("event:")) {
+                        event = line.substring("event:".length()).trim();
+                        if (event.equals("delta") && firstToken < 0) {
+                            firstToken = System.nanoTime() - start;
+                        }
+                    } else if (line.startsWith("data:") && "done".equals(event)) {
+                        JsonNode stats = MAPPER.readTree(line.substring("data:".length()));
+                        return LoadReport.Sample.completed(firstToken, System.nanoTime() - start,
+                                stats.path("evalTokens").asInt(0));
+                    } else if (line.startsWith("data:") && "failed".equals(event)) {
+                        return LoadReport.Sample.failed("failed event", System.nanoTime() - start);
+                    }
+                }
+            }
+            return LoadReport.Sample.failed("stream ended early", System.nanoTime() - start);
+        } catch (IOException e) {
+            return LoadReport.Sample.failed(e.getClass().getSimpleName(), System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return LoadReport.Sample.failed("interrupted", System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reads a gauge from the actuator metrics endpoint.
+     *
+     * @return the value in the metric's base unit, or -1 if it is not available
+     */
+    private long metric(String name, String tag) {
+        String uri = settings.url() + "/actuator/metrics/" + name + (tag == null ? "" : "?tag=" + encode(tag));
+        try {
+            HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(URI.create(uri)).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                return -1;
+            }
+            return MAPPER.readTree(response.body()).path("measurements").path(0).path("value").asLong(-1);
+        } catch (IOException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private List<Conversation> conversations() throws IOException {
+        try (InputStream in = settings.conversations() == null
+                ? LoadDriver.class.getResourceAsStream("/conversations.json")
+                : Files.newInputStream(Path.of(settings.conversations()))) {
+            return List.of(MAPPER.readValue(in, Conversation[].class));
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A scripted conversation of one student.
+     *
+     * @param topic     the topic the questions are asked under
+     * @param questions the questions, asked in order
+     */
+    record Conversation(String topic, List<String> questions) {
+    }
+
+    /**
+     * The shape of the simulated load.
+     *
+     * @param url           the base URL of the application
+     * @param students      the number of students, each with a session of its own
+     * @param turns         the number of questions every student asks
+     * @param rampUp        the period over which the students join
+     * @param thinkTime     the pause between an answer and the student's next question
+     * @param timeout       how long one answer may take before it counts as failed
+     * @param conversations a JSON file of conversations to use instead of the built-in ones, or null
+     */
+    public record Settings(String url, int students, int turns, Duration rampUp, Duration thinkTime, Duration timeout,
+                           String conversations) {
+
+        static Settings from(LoadTest.Options options) {
+            return new Settings(
+                    options.string("url", "http://localhost:8080"),
+                    options.integer("students", 20),
+                    options.integer("turns", 3),
+                    options.duration("ramp-up", Duration.ofSeconds(10)),
+                    options.duration("think-time", Duration.ofSeconds(2)),
+                    options.duration("timeout", Duration.ofMinutes(5)),
+                    options.string("conversations", null));
+        }
+    }
+}
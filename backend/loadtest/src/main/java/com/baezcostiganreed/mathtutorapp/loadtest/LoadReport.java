@@ -0,0 +1,103 @@
+package com.baezcostiganreed.mathtutorapp.loadtest;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+
+/**
+ * The outcome of a load test run: latency percentiles of the completed answers, throughput, failures by cause,
+ * and the heap of the application before, at the peak of and after the run.
+ *
+ * @param samples    one sample per question asked
+ * @param elapsed    the wall-clock time of the run
+ * @param heapBefore the used heap before the run, in bytes, or -1 if unknown
+ * @param heapPeak   the highest used heap sampled during the run
+ * @param heapAfter  the used heap after the run
+ * @param liveBefore the heap live after the last major collection before the run
+ * @param liveAfter  the heap live after the last major collection after the run
+ */
+public record LoadReport(List<Sample> samples, Duration elapsed, long heapBefore, long heapPeak, long heapAfter,
+                         long liveBefore, long liveAfter) {
+
+    /**
+     * One question and its answer.
+     *
+     * @param failure    the cause of the failure, or null if the answer completed
+     * @param ttftNanos  the time to the first delta event, or -1 if none arrived
+     * @param totalNanos the time to the end of the answer
+     * @param evalTokens the number of generated tokens reported in the done event
+     */
+    public record Sample(String failure, long ttftNanos, long totalNanos, int evalTokens) {
+
+        static Sample completed(long ttftNanos, long totalNanos, int evalTokens) {
+            return new Sample(null, ttftNanos, totalNanos, evalTokens);
+        }
+
+        static Sample failed(String failure, long totalNanos) {
+            return new Sample(failure, -1, totalNanos, 0);
+        }
+    }
+
+    public List<Sample> completed() {
+        return samples.stream().filter(sample -> sample.failure() == null).toList();
+    }
+
+    /**
+     * @return the number of failed answers by cause
+     */
+    public Map<String, Long> failures() {
+        return samples.stream()
+                .filter(sample -> sample.failure() != null)
+                .collect(Collectors.groupingBy(Sample::failure, TreeMap::new, Collectors.counting()));
+    }
+
+    /**
+     * @return the nearest-rank percentile of the values, in milliseconds, or -1 if there are none
+     */
+    static double percentile(List<Long> nanos, double percentile) {
+        if (nanos.isEmpty()) {
+            return -1;
+        }
+        List<Long> sorted = nanos.stream().sorted().toList();
+        int rank = (int) Math.ceil(percentile / 100 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1)) / 1e6;
+    }
+
+    public String format() {
+        List<Sample> completed = completed();
+        double seconds = elapsed.toNanos() / 1e9;
+        long tokens = completed.stream().mapToLong(Sample::evalTokens).sum();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%nQuestions: %d asked, %d answered, %d failed in %.1f s%n",
+                samples.size(), completed.size(), samples.size() - completed.size(), seconds));
+        failures().forEach((cause, count) -> report.append(String.format("  %-24s %d%n", cause, count)));
+        report.append(String.format("Throughput: %.2f answers/s, %.1f tokens/s%n", completed.size() / seconds, tokens / seconds));
+        report.append(String.format("%-22s %10s %10s %10s %10s%n", "", "p50", "p95", "p99", "max"));
+        report.append(latencies("Time to first token", completed.stream()
+                .filter(sample -> sample.ttftNanos() >= 0).map(Sample::ttftNanos).toList()));
+        report.append(latencies("Total latency", completed.stream().map(Sample::totalNanos).toList()));
+        report.append(String.format("Heap used: %s before, %s peak, %s after (%s growth)%n",
+                megabytes(heapBefore), megabytes(heapPeak), megabytes(heapAfter), growth(heapBefore, heapAfter)));
+        report.append(String.format("Live heap after GC: %s before, %s after (%s growth)%n",
+                megabytes(liveBefore), megabytes(liveAfter), growth(liveBefore, liveAfter)));
+        return report.toString();
+    }
+
+    private static String latencies(String name, List<Long> nanos) {
+        Function<Double, String> millis = value -> value < 0 ? "n/a" : String.format("%.0f ms", value);
+        return String.format("%-22s %10s %10s %10s %10s%n", name, millis.apply(percentile(nanos, 50)),
+                millis.apply(percentile(nanos, 95)), millis.apply(percentile(nanos, 99)), millis.apply(percentile(nanos, 100)));
+    }
+
+    private static String megabytes(long bytes) {
+        return bytes < 0 ? "n/a" : String.format("%.1f MB", bytes / 1048576.0);
+    }
+
+    private static String growth(long before, long after) {
+        return before < 0 || after < 0 ? "n/a" : String.format("%+.1f MB", (after - before) / 1048576.0);
+    }
+}
@@ -0,0 +1,87 @@
+package com.baezcostiganreed.mathtutorapp.loadtest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The entry point of the load test, which either starts the stub Ollama server or drives simulated students
+ * against a running MathTutorApp:
+ * <pre>
+ * java -jar loadtest.jar stub  [--port=11435] [--tokens-per-second=40] [--first-token-latency=300ms] ...
+ * java -jar loadtest.jar drive [--url=http://localhost:8080] [--students=20] [--turns=3] ...
+ * </pre>
+ * Every option has a default, listed in {@link StubOllama.Settings} and {@link LoadDriver.Settings}.
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || !(args[0].equals("stub") || args[0].equals("drive"))) {
+            System.err.println("Usage: java -jar loadtest.jar stub|drive [--option=value ...]");
+            System.exit(2);
+        }
+        Options options = Options.parse(args);
+        if (args[0].equals("stub")) {
+            StubOllama stub = StubOllama.start(StubOllama.Settings.from(options));
+            Runtime.getRuntime().addShutdownHook(new Thread(stub::stop));
+            Thread.currentThread().join();
+        } else {
+            LoadReport report = new LoadDriver(LoadDriver.Settings.from(options)).run();
+            System.out.println(report.format());
+        }
+    }
+
+    /**
+     * Command line options of the form {@code --name=value}.
+     */
+    record Options(Map<String, String> values) {
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                int separator = arg.indexOf('=');
+                if (!arg.startsWith("--") || separator < 0) {
+                    throw new IllegalArgumentException("Options must have the form --name=value: " + arg);
+                }
+                values.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+            return new Options(values);
+        }
+
+        String string(String name, String defaultValue) {
+            return values.getOrDefault(name, defaultValue);
+        }
+
+        int integer(String name, int defaultValue) {
+            return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+        }
+
+        double decimal(String name, double defaultValue) {
+            return values.containsKey(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+        }
+
+        /**
+         * Reads a duration such as {@code 250ms}, {@code 5s} or {@code 2m}.
+         */
+        Duration duration(String name, Duration defaultValue) {
+            String value = values.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            if (value.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+            }
+            long amount = Long.parseLong(value.substring(0, value.length() - 1));
+            return switch (value.charAt(value.length() - 1)) {
+                case 's' -> Duration.ofSeconds(amount);
+                case 'm' -> Duration.ofMinutes(amount);
+                default -> throw new IllegalArgumentException("Unknown duration unit: " + value);
+            };
+        }
+    }
+}
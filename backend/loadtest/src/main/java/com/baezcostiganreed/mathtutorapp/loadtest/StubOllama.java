@@ -0,0 +1,289 @@
+package com.baezcostiganreed.mathtutorapp.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * An HTTP server that stands in for Ollama, so the application can be load tested without a GPU.
+ * {@code /api/chat} streams an NDJSON answer at a configurable token rate after a first-token latency that grows
+ * with the prompt, {@code /api/embed} returns feature-hashed embeddings after a configurable latency, and
+ * {@code /api/tags} lists the models. Like Ollama, the stub generates only a limited number of answers at once and
+ * queues the rest, so queueing shows up in the time to first token the same way it does in production.
+ */
+public final class StubOllama {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String[] WORDS = {
+            "To", "add", "fractions", "with", "unlike", "denominators,", "first", "find", "the", "least", "common",
+            "denominator.", "Then", "rewrite", "each", "fraction", "as", "an", "equivalent", "one", "and", "add",
+            "numerators.", "For", "example,", "1/3", "+", "1/4", "=", "4/12", "3/12", "7/12.", "Remember", "to",
+            "simplify", "your", "answer", "if", "you", "can.", "Let's", "try", "another", "step", "together."};
+
+    private final Settings settings;
+    private final HttpServer http;
+    private final Semaphore slots;
+    private final AtomicInteger chats = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+    private final AtomicLong embeddedTexts = new AtomicLong();
+
+    private StubOllama(Settings settings) throws IOException {
+        this.settings = settings;
+        this.slots = new Semaphore(settings.parallel(), true);
+        this.http = HttpServer.create(new InetSocketAddress(settings.port()), 0);
+        http.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        http.createContext("/api/chat", exchange -> handle(exchange, this::chat));
+        http.createContext("/api/embed", exchange -> handle(exchange, this::embed));
+        http.createContext("/api/tags", exchange -> handle(exchange, this::tags));
+        http.createContext("/api/show", exchange -> handle(exchange, e -> json(e, MAPPER.createObjectNode())));
+        http.createContext("/api/pull", exchange -> handle(exchange, e -> json(e, MAPPER.createObjectNode().put("status", "success"))));
+        http.createContext("/", exchange -> handle(exchange, e -> text(e, "Ollama is running")));
+    }
+
+    /**
+     * Starts a stub server.
+     *
+     * @param settings the port, rates and latencies of the stub
+     * @return the running server
+     */
+    public static StubOllama start(Settings settings) throws IOException {
+        StubOllama stub = new StubOllama(settings);
+        stub.http.start();
+        System.out.println("Stub Ollama listening on port " + stub.port() + " with " + settings);
+        return stub;
+    }
+
+    public void stop() {
+        http.stop(0);
+        System.out.println("Stub Ollama stopped after " + chats.get() + " chats and " + embeddedTexts.get()
+                + " embedded texts; at most " + maxQueued.get() + " chats waited for a slot");
+    }
+
+    public int port() {
+        return http.getAddress().getPort();
+    }
+
+    public int chats() {
+        return chats.get();
+    }
+
+    public long embeddedTexts() {
+        return embeddedTexts.get();
+    }
+
+    private void chat(HttpExchange exchange) throws IOException, InterruptedException {
+        JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+        String model = request.path("model").asText();
+        int promptTokens = 0;
+        String lastMessage = "";
+        for (JsonNode message : request.path("messages")) {
+            lastMessage = message.path("content").asText();
+            promptTokens += lastMessage.length() / 4 + 1;
+        }
+        chats.incrementAndGet();
+
+        long start = System.nanoTime();
+        if (!slots.tryAcquire(0, TimeUnit.SECONDS)) {
+            maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+            try {
+                slots.acquire();
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+        try {
+            Duration promptEval = Duration.ofNanos((long) (promptTokens / settings.promptTokensPerSecond() * 1e9));
+            Thread.sleep(settings.firstTokenLatency().plus(promptEval));
+            long evalStart = System.nanoTime();
+
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                Random random = new Random(lastMessage.hashCode());
+                long tokenNanos = (long) (1e9 / settings.tokensPerSecond());
+                for (int i = 0; i < settings.answerTokens(); i++) {
+                    String token = (i == 0 ? "" : " ") + WORDS[random.nextInt(WORDS.length)];
+                    write(out, chunk(model, token));
+                    Thread.sleep(Duration.ofNanos(tokenNanos));
+                }
+                ObjectNode done = chunk(model, "");
+                done.put("done", true)
+                        .put("done_reason", "stop")
+                        .put("total_duration", System.nanoTime() - start)
+                        .put("load_duration", 0L)
+                        .put("prompt_eval_count", promptTokens)
+                        .put("prompt_eval_duration", promptEval.toNanos())
+                        .put("eval_count", settings.answerTokens())
+                        .put("eval_duration", System.nanoTime() - evalStart);
+                write(out, done);
+            }
+        } finally {
+            slots.release();
+        }
+    }
+
+    private void embed(HttpExchange exchange) throws IOException, InterruptedException {
+        JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+        List<String> inputs = new ArrayList<>();
+        JsonNode input = request.path("input");
+        if (input.isArray()) {
+            input.forEach(text -> inputs.add(text.asText()));
+        } else {
+            inputs.add(input.asText());
+        }
+        embeddedTexts.addAndGet(inputs.size());
+        Thread.sleep(settings.embedLatency().plus(settings.embedLatencyPerText().multipliedBy(inputs.size())));
+
+        ObjectNode response = MAPPER.createObjectNode().put("model", request.path("model").asText());
+        ArrayNode embeddings = response.putArray("embeddings");
+        for (String text : inputs) {
+            ArrayNode embedding = embeddings.addArray();
+            for (float value : embedding(text, settings.dimensions())) {
+                embedding.add(value);
+            }
+        }
+        json(exchange, response);
+    }
+
+    private void tags(HttpExchange exchange) throws IOException {
+        ObjectNode response = MAPPER.createObjectNode();
+        ArrayNode models = response.putArray("models");
+        for (String model : settings.models().split(",")) {
+            models.addObject().put("name", model.trim()).put("model", model.trim());
+        }
+        json(exchange, response);
+    }
+
+    /**
+     * Hashes the words of the text into a unit vector, so texts that share words are close to each other,
+     * which keeps the similarity thresholds and caches of the application meaningful.
+     */
+    static float[] embedding(String text, int dimensions) {
+        float[] vector = new float[dimensions];
+        for (String word : text.toLowerCase(Locale.ROOT).split("\\W+")) {
+            if (!word.isEmpty()) {
+                int hash = word.hashCode();
+                vector[Math.floorMod(hash, dimensions)] += (hash & 1) == 0 ? 1 : -1;
+            }
+        }
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            vector[0] = 1;
+            return vector;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    private static ObjectNode chunk(String model, String content) {
+        ObjectNode chunk = MAPPER.createObjectNode()
+                .put("model", model)
+                .put("created_at", Instant.now().toString());
+        chunk.putObject("message").put("role", "assistant").put("content", content);
+        chunk.put("done", false);
+        return chunk;
+    }
+
+    private static void write(OutputStream out, JsonNode line) throws IOException {
+        out.write(MAPPER.writeValueAsBytes(line));
+        out.write('\n');
+        out.flush();
+    }
+
+    private static void json(HttpExchange exchange, JsonNode body) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void text(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes();
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Runs a handler, answering 500 if it fails. A client that hangs up mid-answer ends the handler quietly.
+     */
+    private static void handle(HttpExchange exchange, Handler handler) {
+        try (exchange) {
+            handler.handle(exchange);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            try {
+                exchange.sendResponseHeaders(500, -1);
+            } catch (IOException ignored) {
+                // the response was already started or the client is gone
+            }
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws Exception;
+    }
+
+    /**
+     * The behavior of the stub.
+     *
+     * @param port                   the port to listen on
+     * @param models                 the comma-separated model names listed by /api/tags
+     * @param parallel               the number of answers generated at once, like OLLAMA_NUM_PARALLEL
+     * @param firstTokenLatency      the fixed delay before the first token, on top of prompt evaluation
+     * @param promptTokensPerSecond  the rate prompt tokens are evaluated at
+     * @param tokensPerSecond        the rate answer tokens are generated at, per answer
+     * @param answerTokens           the number of tokens in every answer
+     * @param embedLatency           the fixed delay of an embedding call
+     * @param embedLatencyPerText    the additional delay per embedded text
+     * @param dimensions             the length of the embeddings
+     */
+    public record Settings(int port, String models, int parallel, Duration firstTokenLatency,
+                           double promptTokensPerSecond, double tokensPerSecond, int answerTokens,
+                           Duration embedLatency, Duration embedLatencyPerText, int dimensions) {
+
+        static Settings from(LoadTest.Options options) {
+            return new Settings(
+                    options.integer("port", 11435),
+                    options.string("models", "phi4-mini,nomic-embed-text"),
+                    options.integer("parallel", 4),
+                    options.duration("first-token-latency", Duration.ofMillis(300)),
+                    options.decimal("prompt-tokens-per-second", 2000),
+                    options.decimal("tokens-per-second", 40),
+                    options.integer("answer-tokens", 250),
+                    options.duration("embed-latency", Duration.ofMillis(20)),
+                    options.duration("embed-latency-per-text", Duration.ofMillis(2)),
+                    options.integer("dimensions", 768));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.baezcostiganreed.mathtutorapp.loadtest;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LoadReportTest {
+
+    @Test
+    void computesNearestRankPercentiles() {
+        List<Long> nanos = LongStream.rangeClosed(1, 100).map(i -> i * 1_000_000).boxed().toList();
+
+        assertThat(LoadReport.percentile(nanos, 50)).isEqualTo(50);
+        assertThat(LoadReport.percentile(nanos, 95)).isEqualTo(95);
+        assertThat(LoadReport.percentile(nanos, 99)).isEqualTo(99);
+        assertThat(LoadReport.percentile(List.of(), 99)).isEqualTo(-1);
+    }
+
+    @Test
+    void reportsFailuresByCause() {
+        LoadReport report = new LoadReport(List.of(
+                LoadReport.Sample.completed(200_000_000, 5_000_000_000L, 250),
+                LoadReport.Sample.failed("http 429", 1_000_000),
+                LoadReport.Sample.failed("http 429", 1_000_000)),
+                Duration.ofSeconds(10), -1, -1, -1, -1, -1);
+
+        assertThat(report.completed()).hasSize(1);
+        assertThat(report.failures()).containsEntry("http 429", 2L);
+        assertThat(report.format()).contains("3 asked, 1 answered, 2 failed").contains("25.0 tokens/s");
+    }
+}
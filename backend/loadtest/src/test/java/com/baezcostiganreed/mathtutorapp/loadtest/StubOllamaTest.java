@@ -0,0 +1,61 @@
+package com.baezcostiganreed.mathtutorapp.loadtest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.ollama.api.OllamaApi;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StubOllamaTest {
+    private final StubOllama stub = StubOllama.start(new StubOllama.Settings(0, "phi4-mini,nomic-embed-text", 2,
+            Duration.ofMillis(10), 10_000, 1000, 20, Duration.ZERO, Duration.ZERO, 768));
+    private final OllamaApi ollamaApi = new OllamaApi("http://localhost:" + stub.port());
+
+    StubOllamaTest() throws IOException {
+    }
+
+    @AfterEach
+    void stop() {
+        stub.stop();
+    }
+
+    @Test
+    void streamsAnswersTheOllamaClientCanRead() {
+        List<OllamaApi.ChatResponse> responses = ollamaApi.streamingChat(OllamaApi.ChatRequest.builder("phi4-mini")
+                        .stream(true)
+                        .messages(List.of(OllamaApi.Message.builder(OllamaApi.Message.Role.USER).content("What is 1/3 + 1/4?").build()))
+                        .build())
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertThat(responses).hasSize(21);
+        OllamaApi.ChatResponse done = responses.get(20);
+        assertThat(done.done()).isTrue();
+        assertThat(done.doneReason()).isEqualTo("stop");
+        assertThat(done.evalCount()).isEqualTo(20);
+        assertThat(done.promptEvalCount()).isPositive();
+    }
+
+    @Test
+    void embedsSimilarTextsCloseToEachOther() {
+        OllamaApi.EmbeddingsResponse response = ollamaApi.embed(new OllamaApi.EmbeddingsRequest("nomic-embed-text",
+                List.of("adding fractions", "how to add fractions", "solving linear equations"), null, null, null));
+
+        List<float[]> embeddings = response.embeddings();
+        assertThat(embeddings).hasSize(3).allSatisfy(embedding -> assertThat(embedding).hasSize(768));
+        assertThat(dot(embeddings.get(0), embeddings.get(1))).isGreaterThan(dot(embeddings.get(0), embeddings.get(2)));
+        assertThat(ollamaApi.listModels().models()).extracting(OllamaApi.Model::name).contains("phi4-mini");
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+}
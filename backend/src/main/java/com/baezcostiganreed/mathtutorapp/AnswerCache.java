@@ -0,0 +1,151 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * An opt-in cache of complete answers to first-turn questions.
+ * Answers are generated at low temperature, so the answer to a common opening question such as "what is a fraction?"
+ * hardly varies and can be reused. The key combines the topic, the normalized question, the retrieved documents and
+ * a fingerprint of the prompt template, model and generation options, so re-ingested books, a new template or a new
+ * model never serve a stale answer. Cached answers are replayed as a stream of chat responses at a configurable
+ * pace, so clients see them arrive the same way as generated ones.
+ */
+@Component
+public class AnswerCache {
+    private static final Logger logger = LoggerFactory.getLogger(AnswerCache.class);
+
+    /**
+     * The model name of replayed responses, which tells clients the answer came from the cache.
+     */
+    public static final String CACHE_MODEL = "answer-cache";
+
+    /**
+     * A word with its leading whitespace, the unit answers are replayed in.
+     */
+    private static final Pattern REPLAY_TOKEN = Pattern.compile("\\s*\\S+|\\s+");
+
+    private final boolean enabled;
+    private final Duration replayDelay;
+    private final Cache<String, String> answers;
+
+    /**
+     * Constructs a new answer cache.
+     *
+     * @param enabled       whether answers are cached and served at all
+     * @param maxBytes      the approximate upper bound on the memory held by cached answers
+     * @param timeToLive    how long an answer stays cached after it was generated
+     * @param replayDelay   the pause between two words of a replayed answer; zero replays it at once
+     * @param meterRegistry the registry the hit, miss and eviction counters are published to
+     */
+    public AnswerCache(@Value("${mathtutor.answer-cache.enabled:false}") boolean enabled,
+                       @Value("${mathtutor.answer-cache.max-bytes:16777216}") long maxBytes,
+                       @Value("${mathtutor.answer-cache.ttl:24h}") Duration timeToLive,
+                       @Value("${mathtutor.answer-cache.replay-delay:15ms}") Duration replayDelay,
+                       MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.replayDelay = replayDelay;
+        this.answers = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, String answer) -> 2 * (key.length() + answer.length()))
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+        CacheMetrics.monitor(meterRegistry, answers, "answer");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Builds the cache key of a first-turn question.
+     *
+     * @param topic       the topic the question was asked under
+     * @param question    the student's question
+     * @param documentIds the IDs of the documents retrieved for the question
+     * @param fingerprint the hash of the prompt template, model and generation options
+     * @return the key
+     */
+    public static String key(String topic, String question, List<String> documentIds, String fingerprint) {
+        String normalizedQuestion = question.trim().toLowerCase().replaceAll("\\s+", " ").replaceAll("[?.!]+$", "");
+        return ContentHash.of(String.join("\n", topic.trim().toLowerCase(), normalizedQuestion,
+                String.join(",", documentIds.stream().sorted().toList()), fingerprint));
+    }
+
+    /**
+     * @return the cached answer for the key, replayed as a stream of chat responses, if there is one
+     */
+    public Optional<Flux<OllamaApi.ChatResponse>> replay(String key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String answer = answers.getIfPresent(key);
+        if (answer == null) {
+            return Optional.empty();
+        }
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = REPLAY_TOKEN.matcher(answer);
+        while (matcher.find()) {
+            tokens.add(matcher.group());
+        }
+        Flux<OllamaApi.ChatResponse> words = Flux.fromIterable(tokens).map(token -> response(token, false));
+        if (!replayDelay.isZero()) {
+            words = words.delayElements(replayDelay);
+        }
+        return Optional.of(words.concatWith(Flux.defer(() -> Flux.just(response("", true)))));
+    }
+
+    /**
+     * Passes a generated answer through and caches it once it completed normally. Answers that fail,
+     * are cut off by the context limit or are cancelled are not cached.
+     *
+     * @param key       the cache key of the question
+     * @param responses the responses of the generation
+     * @return the same responses
+     */
+    public Flux<OllamaApi.ChatResponse> record(String key, Flux<OllamaApi.ChatResponse> responses) {
+        if (!enabled) {
+            return responses;
+        }
+        StringBuilder answer = new StringBuilder();
+        return responses.doOnNext(response -> {
+            if (response.message() != null && response.message().content() != null) {
+                answer.append(response.message().content());
+            }
+            if (Boolean.TRUE.equals(response.done()) && "stop".equals(response.doneReason()) && !answer.isEmpty()) {
+                answers.put(key, answer.toString());
+            }
+        });
+    }
+
+    /**
+     * Drops every cached answer, for example after the topic catalog changed.
+     */
+    public void invalidateAll() {
+        answers.invalidateAll();
+        logger.info("Answer cache invalidated");
+    }
+
+    private static OllamaApi.ChatResponse response(String content, boolean done) {
+        return new OllamaApi.ChatResponse(CACHE_MODEL, Instant.now(),
+                OllamaApi.Message.builder(OllamaApi.Message.Role.ASSISTANT).content(content).build(),
+                done ? "stop" : null, done, null, null, null, null, null, null);
+    }
+}
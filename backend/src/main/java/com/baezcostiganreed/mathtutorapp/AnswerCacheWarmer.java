@@ -0,0 +1,109 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Fills the {@link AnswerCache} with the answers to frequent first-turn questions once the books are ingested,
+ * so the first students to ask them do not wait for a generation. The questions are listed per topic in a JSON
+ * file and answered one at a time, sharing the Ollama servers with the students' questions.
+ * The answers are streamed without holding a thread; every question may take up to the question timeout, and
+ * warming stops, keeping the answers cached so far, once it has run for the warm-up timeout.
+ */
+@Component
+public class AnswerCacheWarmer {
+    private static final Logger logger = LoggerFactory.getLogger(AnswerCacheWarmer.class);
+
+    private static final TypeReference<Map<String, List<String>>> QUESTIONS_TYPE = new TypeReference<>() {
+    };
+
+    private final AnswerCache answerCache;
+    private final ChatService chatService;
+    private final ObjectMapper objectMapper;
+    private final Resource questions;
+    private final Duration questionTimeout;
+    private final Duration timeout;
+
+    private Disposable warming;
+
+    /**
+     * Constructs a new answer cache warmer.
+     *
+     * @param answerCache     the cache to fill
+     * @param chatService     the service that answers the questions
+     * @param objectMapper    the mapper the question file is read with
+     * @param questions       the JSON file mapping every topic to its frequent questions
+     * @param questionTimeout how long the answer to one question may take before it is skipped
+     * @param timeout         how long warming may run in total before the remaining questions are skipped
+     */
+    public AnswerCacheWarmer(AnswerCache answerCache, ChatService chatService, ObjectMapper objectMapper,
+                             @Value("${mathtutor.answer-cache.warm-questions:classpath:/answers/warm-questions.json}") Resource questions,
+                             @Value("${mathtutor.answer-cache.warm-question-timeout:2m}") Duration questionTimeout,
+                             @Value("${mathtutor.answer-cache.warm-timeout:30m}") Duration timeout) {
+        this.answerCache = answerCache;
+        this.chatService = chatService;
+        this.objectMapper = objectMapper;
+        this.questions = questions;
+        this.questionTimeout = questionTimeout;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Starts answering every listed question that is not cached yet, after stopping a warm-up still running.
+     */
+    @EventListener(IngestionFinishedEvent.class)
+    public synchronized void warm() {
+        if (!answerCache.isEnabled() || !questions.exists()) {
+            return;
+        }
+        Map<String, List<String>> questionsByTopic;
+        try (InputStream in = questions.getInputStream()) {
+            questionsByTopic = objectMapper.readValue(in, QUESTIONS_TYPE);
+        } catch (IOException e) {
+            logger.error("Frequent questions could not be read from " + questions, e);
+            return;
+        }
+        stop();
+        AtomicInteger answered = new AtomicInteger();
+        warming = Flux.fromIterable(questionsByTopic.entrySet())
+                .concatMap(topic -> Flux.fromIterable(topic.getValue())
+                        .concatMap(question -> chatService.answerFirstTurn(topic.getKey(), question)
+                                .timeout(questionTimeout)
+                                .then(Mono.fromRunnable(answered::incrementAndGet))
+                                .onErrorResume(e -> {
+                                    logger.warn("Answer cache warming failed for '" + question + "' in " + topic.getKey() + ": " + e);
+                                    return Mono.empty();
+                                })))
+                .take(timeout)
+                .doFinally(signal -> logger.info("Answer cache warmed with " + answered + " frequent questions"))
+                .subscribe();
+    }
+
+    /**
+     * Stops a warm-up still running.
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (warming != null) {
+            warming.dispose();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.springframework.ai.ollama.api.OllamaApi;
+
+import java.util.List;
+
+/**
+ * The messages of a chat request together with how they were fitted into the token budget.
+ *
+ * @param messages        the messages to send, system prompt first
+ * @param promptTokens    the estimated number of prompt tokens
+ * @param historyTurns    the number of earlier turns that were included
+ * @param droppedTurns    the number of earlier turns left out entirely
+ * @param droppedContexts the number of included earlier turns whose chapter text was left out
+ */
+public record AssembledPrompt(List<OllamaApi.Message> messages, int promptTokens, int historyTurns,
+                              int droppedTurns, int droppedContexts) {
+}
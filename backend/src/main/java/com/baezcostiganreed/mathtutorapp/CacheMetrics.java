@@ -0,0 +1,26 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+
+/**
+ * Publishes the metrics of a Caffeine cache: the size, hit, miss and eviction meters of
+ * {@link CaffeineCacheMetrics}, and a "cache.hit.ratio" gauge with the share of lookups served from the cache.
+ * The cache must be built with {@code recordStats()}.
+ */
+final class CacheMetrics {
+
+    private CacheMetrics() {
+    }
+
+    static void monitor(MeterRegistry meterRegistry, Cache<?, ?> cache, String name) {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        Gauge.builder("cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .tag("cache", name)
+                .description("Share of lookups served from the cache since startup")
+                .register(meterRegistry);
+    }
+}
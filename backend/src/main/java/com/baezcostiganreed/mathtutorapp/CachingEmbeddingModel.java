@@ -0,0 +1,394 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * An embedding model that puts a cache in front of the Ollama embedding model, used for both search queries
+ * and ingestion. Embeddings are keyed by the SHA-256 hash of the model name and the text, and looked up in an
+ * in-memory tier and then, if enabled, in the embedding_cache table, which survives restarts and re-ingestion.
+ * Concurrent requests for the same text share one computation, and the texts that miss both tiers are collected
+ * for a short window and embedded together in one call to the model. Every row of the table records when it was
+ * last used, and rows unused for longer than the retention are deleted periodically.
+ * Since texts of different requests are embedded together, requests can only choose the configured model:
+ * requests with any other model or with dimensions are rejected rather than answered from the shared cache.
+ * Every computation fails after a timeout, and the ones still pending fail when the model is shut down,
+ * so no caller waits forever on an embedding that will never arrive.
+ */
+@Primary
+@Component
+public class CachingEmbeddingModel implements EmbeddingModel {
+    private static final Logger logger = LoggerFactory.getLogger(CachingEmbeddingModel.class);
+
+    private final EmbeddingModel delegate;
+    private final JdbcClient jdbcClient;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String modelName;
+    private final boolean persistent;
+    private final Duration retention;
+    private final int maxBatchSize;
+    private final Duration batchWindow;
+    private final Duration timeout;
+
+    private final Cache<String, float[]> memory;
+    private final Map<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    private final ExecutorService batchExecutor;
+    private volatile boolean closed;
+
+    private final Counter memoryHits;
+    private final Counter databaseHits;
+    private final Counter collapsed;
+    private final Counter computed;
+    private final Counter modelCalls;
+    private final Counter callsSaved;
+    private final DistributionSummary batchSize;
+
+    /**
+     * Constructs a new caching embedding model.
+     *
+     * @param delegate         the model embeddings are computed with
+     * @param jdbcClient       the JDBC client used for the embedding_cache table
+     * @param jdbcTemplate     the JDBC template computed embeddings are written to the embedding_cache table with in batches
+     * @param modelName        the name of the embedding model, part of every cache key
+     * @param maxBytes         the approximate upper bound on the memory held by cached embeddings
+     * @param persistent       whether embeddings are also stored in and loaded from the embedding_cache table
+     * @param retention        how long a row of the embedding_cache table is kept after it was last used
+     * @param maxBatchSize     the largest number of texts embedded in one call to the model
+     * @param batchWindow      how long texts are collected before they are embedded together
+     * @param batchConcurrency the number of calls to the model running at the same time
+     * @param timeout          how long a text may wait for its embedding before the request fails
+     * @param meterRegistry    the registry hits, model calls and calls saved are published to
+     */
+    @Autowired
+    public CachingEmbeddingModel(OllamaEmbeddingModel delegate, JdbcClient jdbcClient, NamedParameterJdbcTemplate jdbcTemplate,
+                                 @Value("${spring.ai.ollama.embedding.model:nomic-embed-text}") String modelName,
+                                 @Value("${mathtutor.embedding-cache.max-bytes:67108864}") long maxBytes,
+                                 @Value("${mathtutor.embedding-cache.persistent:false}") boolean persistent,
+                                 @Value("${mathtutor.embedding-cache.retention:30d}") Duration retention,
+                                 @Value("${mathtutor.embedding-cache.max-batch-size:32}") int maxBatchSize,
+                                 @Value("${mathtutor.embedding-cache.batch-window:5ms}") Duration batchWindow,
+                                 @Value("${mathtutor.embedding-cache.batch-concurrency:4}") int batchConcurrency,
+                                 @Value("${mathtutor.embedding-cache.timeout:60s}") Duration timeout,
+                                 MeterRegistry meterRegistry) {
+        this((EmbeddingModel) delegate, jdbcClient, jdbcTemplate, modelName, maxBytes, persistent, retention,
+                maxBatchSize, batchWindow, batchConcurrency, timeout, meterRegistry);
+    }
+
+    CachingEmbeddingModel(EmbeddingModel delegate, JdbcClient jdbcClient, NamedParameterJdbcTemplate jdbcTemplate,
+                          String modelName, long maxBytes, boolean persistent, Duration retention, int maxBatchSize,
+                          Duration batchWindow, int batchConcurrency, Duration timeout, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.jdbcClient = jdbcClient;
+        this.jdbcTemplate = jdbcTemplate;
+        this.modelName = modelName;
+        this.persistent = persistent;
+        this.retention = retention;
+        this.maxBatchSize = maxBatchSize;
+        this.batchWindow = batchWindow;
+        this.timeout = timeout;
+        this.memory = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, float[] embedding) -> 2 * key.length() + 4 * embedding.length)
+                .recordStats()
+                .build();
+        CacheMetrics.monitor(meterRegistry, memory, "embedding");
+        this.memoryHits = meterRegistry.counter("embedding.texts", "source", "memory");
+        this.databaseHits = meterRegistry.counter("embedding.texts", "source", "database");
+        this.collapsed = meterRegistry.counter("embedding.texts", "source", "collapsed");
+        this.computed = meterRegistry.counter("embedding.texts", "source", "model");
+        this.modelCalls = meterRegistry.counter("embedding.model.calls");
+        this.callsSaved = Counter.builder("embedding.calls.saved")
+                .description("Texts embedded without a model call of their own: cache hits, collapsed duplicates and texts batched with others")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("embedding.batch.size").register(meterRegistry);
+        this.batchExecutor = Executors.newFixedThreadPool(batchConcurrency, Thread.ofPlatform().name("embedding-batch-", 0).factory());
+        this.dispatcher = Thread.ofPlatform().name("embedding-dispatcher").daemon().start(this::dispatch);
+    }
+
+    /**
+     * Stops batching and fails every computation that has not completed yet, including texts still waiting
+     * for a batch and batches still waiting for the executor.
+     */
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        dispatcher.interrupt();
+        batchExecutor.shutdown();
+        failInFlight();
+    }
+
+    /**
+     * Deletes the rows of the embedding_cache table that have not been used within the retention.
+     */
+    @Scheduled(fixedDelayString = "${mathtutor.embedding-cache.cleanup-interval:1h}")
+    public void purgeUnusedEmbeddings() {
+        if (!persistent) {
+            return;
+        }
+        try {
+            int purged = jdbcClient.sql("DELETE FROM embedding_cache WHERE last_used < now() - make_interval(secs => :retentionSeconds)")
+                    .param("retentionSeconds", retention.toSeconds())
+                    .update();
+            if (purged > 0) {
+                logger.info("Purged unused cached embeddings: " + purged);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Unused embeddings could not be purged from the embedding cache table", e);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the request's options ask for another model than the configured one,
+     *                                  or for dimensions
+     */
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        EmbeddingOptions options = request.getOptions();
+        if (options != null && (options.getModel() != null && !options.getModel().equals(modelName) || options.getDimensions() != null)) {
+            throw new IllegalArgumentException("Only " + modelName + " embeddings with default dimensions are cached, got model "
+                    + options.getModel() + " with dimensions " + options.getDimensions());
+        }
+        List<String> texts = request.getInstructions();
+        float[][] embeddings = new float[texts.size()][];
+        Map<String, List<Integer>> missing = new LinkedHashMap<>();
+        Map<String, String> missingTexts = new HashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String key = key(texts.get(i));
+            float[] cached = memory.getIfPresent(key);
+            if (cached != null) {
+                embeddings[i] = cached;
+                memoryHits.increment();
+                callsSaved.increment();
+            } else {
+                missing.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+                missingTexts.put(key, texts.get(i));
+            }
+        }
+
+        if (persistent && !missing.isEmpty()) {
+            load(missing.keySet()).forEach((key, embedding) -> {
+                memory.put(key, embedding);
+                for (int i : missing.remove(key)) {
+                    embeddings[i] = embedding;
+                    databaseHits.increment();
+                    callsSaved.increment();
+                }
+            });
+        }
+
+        Map<String, CompletableFuture<float[]>> futures = new LinkedHashMap<>();
+        for (String key : missing.keySet()) {
+            CompletableFuture<float[]> created = new CompletableFuture<>();
+            CompletableFuture<float[]> future = inFlight.putIfAbsent(key, created);
+            if (future == null) {
+                future = created;
+                created.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS)
+                        .whenComplete((embedding, e) -> inFlight.remove(key, created));
+                pending.add(new Pending(key, missingTexts.get(key), created));
+                if (closed) {
+                    failInFlight();
+                }
+            } else {
+                collapsed.increment();
+                callsSaved.increment();
+            }
+            futures.put(key, future);
+        }
+        futures.forEach((key, future) -> {
+            float[] embedding;
+            try {
+                embedding = future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof TimeoutException) {
+                    throw new IllegalStateException("No embedding from " + modelName + " within " + timeout, e.getCause());
+                }
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+            for (int i : missing.get(key)) {
+                embeddings[i] = embedding;
+            }
+        });
+
+        List<Embedding> results = new ArrayList<>(embeddings.length);
+        for (int i = 0; i < embeddings.length; i++) {
+            results.add(new Embedding(embeddings[i], i));
+        }
+        return new EmbeddingResponse(results);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    private String key(String text) {
+        return ContentHash.of(modelName + "\n" + text);
+    }
+
+    /**
+     * Collects the pending texts into batches of up to maxBatchSize, waiting at most batchWindow after the first
+     * text of a batch, and hands every batch to the batch executor.
+     */
+    private void dispatch() {
+        List<Pending> batch = new ArrayList<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch = new ArrayList<>();
+                batch.add(pending.take());
+                long deadline = System.nanoTime() + batchWindow.toNanos();
+                while (batch.size() < maxBatchSize) {
+                    Pending next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                List<Pending> collected = batch;
+                batchExecutor.execute(() -> embedBatch(collected));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException e) {
+            fail(batch, e);
+        }
+    }
+
+    private void embedBatch(List<Pending> batch) {
+        try {
+            List<float[]> embeddings = delegate.embed(batch.stream().map(Pending::text).toList());
+            if (embeddings.size() != batch.size()) {
+                throw new IllegalStateException("Expected " + batch.size() + " embeddings from " + modelName + ", got " + embeddings.size());
+            }
+            modelCalls.increment();
+            batchSize.record(batch.size());
+            computed.increment(batch.size());
+            callsSaved.increment(batch.size() - 1);
+            Map<String, float[]> computedEmbeddings = new LinkedHashMap<>();
+            for (int i = 0; i < batch.size(); i++) {
+                computedEmbeddings.put(batch.get(i).key(), embeddings.get(i));
+                memory.put(batch.get(i).key(), embeddings.get(i));
+            }
+            if (persistent) {
+                store(computedEmbeddings);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future().complete(embeddings.get(i));
+            }
+        } catch (Throwable e) {
+            fail(batch, e);
+        }
+    }
+
+    private static void fail(List<Pending> batch, Throwable cause) {
+        for (Pending item : batch) {
+            item.future().completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Fails the texts still waiting for a batch and every computation in flight, once the model is shut down.
+     */
+    private void failInFlight() {
+        IllegalStateException closedException = new IllegalStateException("Embedding model " + modelName + " is shut down");
+        pending.clear();
+        inFlight.values().forEach(future -> future.completeExceptionally(closedException));
+    }
+
+    /**
+     * Loads the stored embeddings of the keys, and marks them as used.
+     */
+    private Map<String, float[]> load(Iterable<String> keys) {
+        List<String> hashes = new ArrayList<>();
+        keys.forEach(hashes::add);
+        try {
+            Map<String, float[]> loaded = new HashMap<>();
+            jdbcClient.sql("UPDATE embedding_cache SET last_used = now() WHERE content_hash IN (:hashes) RETURNING content_hash, embedding")
+                    .param("hashes", hashes)
+                    .query((ResultSet rs) -> {
+                        loaded.put(rs.getString("content_hash"), toFloats(rs.getArray("embedding")));
+                    });
+            return loaded;
+        } catch (RuntimeException e) {
+            logger.warn("Embedding cache table could not be read, embedding without it", e);
+            return Map.of();
+        }
+    }
+
+    private void store(Map<String, float[]> embeddings) {
+        try {
+            jdbcTemplate.batchUpdate("""
+                            INSERT INTO embedding_cache (content_hash, embedding)
+                            VALUES (:hash, :embedding)
+                            ON CONFLICT (content_hash) DO NOTHING""",
+                    embeddings.entrySet().stream()
+                            .map(entry -> new MapSqlParameterSource()
+                                    .addValue("hash", entry.getKey())
+                                    .addValue("embedding", entry.getValue()))
+                            .toArray(SqlParameterSource[]::new));
+        } catch (RuntimeException e) {
+            logger.warn("Embeddings could not be written to the embedding cache table", e);
+        }
+    }
+
+    private static float[] toFloats(Array array) throws SQLException {
+        Object[] values = (Object[]) array.getArray();
+        float[] floats = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = ((Number) values[i]).floatValue();
+        }
+        return floats;
+    }
+
+    private record Pending(String key, String text, CompletableFuture<float[]> future) {
+    }
+}
@@ -0,0 +1,11 @@
+package com.baezcostiganreed.mathtutorapp;
+
+/**
+ * A range of pages of one textbook that covers a topic.
+ *
+ * @param fileName  the textbook's PDF file name
+ * @param firstPage the first page of the range, inclusive
+ * @param lastPage  the last page of the range, inclusive
+ */
+public record ChapterRange(String fileName, int firstPage, int lastPage) {
+}
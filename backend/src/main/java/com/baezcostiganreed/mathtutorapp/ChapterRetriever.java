@@ -0,0 +1,190 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Runs topic-scoped hybrid searches.
+ * A similarity search against the configured {@link EmbeddingVectorStore} and a full-text search over the GIN-indexed
+ * content_tsv column of the vector_store table run in parallel, and their results are merged with
+ * {@link ReciprocalRankFusion}. The full-text leg finds chunks with the exact terms of the question, such as
+ * "LCD" or a specific number, that embedding similarity misses.
+ * The chapters are passed to the vector store as a metadata filter, and matched by the full-text search on the
+ * typed, indexed file_name and page_number columns instead of a JSON path filter over the untyped metadata column.
+ * The vector store is {@link PgVectorSearchStore} by default, or the in-process {@link HnswVectorStore} with
+ * {@code mathtutor.vector-store=hnsw}.
+ */
+@Component
+public class ChapterRetriever {
+    private static final Logger logger = LoggerFactory.getLogger(ChapterRetriever.class);
+
+    private static final int MAX_PREDICATES = 1024;
+
+    private final JdbcClient jdbcClient;
+    private final EmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper;
+    private final EmbeddingVectorStore vectorStore;
+    private final boolean explainQueries;
+    private final boolean hybrid;
+    private final int candidates;
+    private final int rrfK;
+    private final ExecutorService textSearchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Timer searchTimer;
+    private final Timer embeddingTimer;
+    private final Timer vectorTimer;
+    private final Timer textTimer;
+
+    /**
+     * The filter of the chapter lists searched recently. Chapter lists come from the topic catalog,
+     * so there is one entry per topic; the entries are dropped when the catalog is reloaded.
+     */
+    private final Cache<List<ChapterRange>, ChapterPredicate> predicates = Caffeine.newBuilder()
+            .maximumSize(MAX_PREDICATES)
+            .build();
+
+    /**
+     * Constructs a new chapter retriever.
+     *
+     * @param jdbcClient       the JDBC client used to query the database
+     * @param embeddingModel   the model used to embed search queries
+     * @param objectMapper     the mapper used to read document metadata
+     * @param vectorStore      the vector store the similarity search runs against, chosen by mathtutor.vector-store
+     * @param explainQueries   whether to log the query plan of every search, for diagnosing slow searches
+     * @param hybrid           whether to run the full-text search next to the similarity search
+     * @param candidates       the number of results each search contributes to the fusion
+     * @param rrfK             the rank offset of the reciprocal-rank fusion
+     * @param meterRegistry    the registry the latency of the search and of each of its legs is published to
+     */
+    public ChapterRetriever(JdbcClient jdbcClient, EmbeddingModel embeddingModel, ObjectMapper objectMapper,
+                            EmbeddingVectorStore vectorStore,
+                            @Value("${mathtutor.retrieval.explain-queries:false}") boolean explainQueries,
+                            @Value("${mathtutor.retrieval.hybrid:true}") boolean hybrid,
+                            @Value("${mathtutor.retrieval.candidates:20}") int candidates,
+                            @Value("${mathtutor.retrieval.rrf-k:60}") int rrfK,
+                            MeterRegistry meterRegistry) {
+        this.jdbcClient = jdbcClient;
+        this.embeddingModel = embeddingModel;
+        this.objectMapper = objectMapper;
+        this.vectorStore = vectorStore;
+        this.explainQueries = explainQueries;
+        this.hybrid = hybrid;
+        this.candidates = candidates;
+        this.rrfK = rrfK;
+        this.searchTimer = meterRegistry.timer("retrieval.search");
+        this.embeddingTimer = meterRegistry.timer("retrieval.search.leg", "leg", "embedding");
+        this.vectorTimer = meterRegistry.timer("retrieval.search.leg", "leg", "vector");
+        this.textTimer = meterRegistry.timer("retrieval.search.leg", "leg", "text");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        textSearchExecutor.shutdown();
+    }
+
+    /**
+     * Drops the filters of the chapter lists of the previous catalog.
+     */
+    @EventListener(TopicCatalogReloadedEvent.class)
+    public void onTopicCatalogReloaded() {
+        predicates.invalidateAll();
+    }
+
+    /**
+     * Returns the chunks of the given chapters that best match the query.
+     *
+     * @param query               the search query for the similarity search
+     * @param keywords            the text for the full-text search, usually the student's question as typed
+     * @param chapters            the chapters to search; an empty list searches every document
+     * @param topK                the maximum number of results
+     * @param similarityThreshold the minimum cosine similarity of a similarity search result
+     * @return the matching chunks, best first, with their fused score as score
+     */
+    public List<Document> search(String query, String keywords, List<ChapterRange> chapters, int topK, double similarityThreshold) {
+        return searchTimer.record(() -> {
+            ChapterPredicate predicate = predicates.get(chapters, ChapterRetriever::chapterPredicate);
+            if (!hybrid) {
+                return vectorSearch(query, predicate, topK, similarityThreshold);
+            }
+            CompletableFuture<List<Document>> textResults = CompletableFuture.supplyAsync(
+                    () -> textSearch(keywords, predicate, candidates), textSearchExecutor);
+            List<Document> vectorResults = vectorSearch(query, predicate, candidates, similarityThreshold);
+            return ReciprocalRankFusion.fuse(List.of(vectorResults, textResults.join()), rrfK, topK);
+        });
+    }
+
+    /**
+     * Searches the vector store. The query is embedded here and searched with that embedding,
+     * so the embedding and the search are timed as separate legs.
+     */
+    private List<Document> vectorSearch(String query, ChapterPredicate predicate, int limit, double similarityThreshold) {
+        float[] embedding = embeddingTimer.record(() -> embeddingModel.embed(query));
+        return vectorTimer.record(() -> vectorStore.similaritySearch(embedding, SearchRequest.builder()
+                .query(query)
+                .topK(limit)
+                .similarityThreshold(similarityThreshold)
+                .filterExpression(predicate.filter())
+                .build()));
+    }
+
+    /**
+     * Ranks the chunks containing any of the words of the keywords, chunks with more and closer matches first.
+     * The keywords are normalized with the english configuration content_tsv is built with, and their lexemes are
+     * joined with OR, each quoted, so a chunk does not need every word of a conversational question to match and
+     * no lexeme is read as a tsquery operator.
+     */
+    private List<Document> textSearch(String keywords, ChapterPredicate predicate, int limit) {
+        return textTimer.record(() -> {
+            Map<String, Object> params = new HashMap<>(predicate.sql().params());
+            params.put("keywords", keywords);
+            params.put("limit", limit);
+            String sql = """
+                    SELECT id, content, metadata::text AS metadata, ts_rank_cd(content_tsv, query) AS rank
+                    FROM vector_store,
+                         (SELECT string_agg('''' || replace(replace(lexeme, '\\', '\\\\'), '''', '''''') || '''', ' | ')::tsquery AS query
+                          FROM unnest(tsvector_to_array(to_tsvector('english', :keywords))) lexeme) keywords
+                    WHERE content_tsv @@ query%s
+                    ORDER BY rank DESC
+                    LIMIT :limit""".formatted(predicate.sql().sql());
+            if (explainQueries) {
+                VectorStoreRows.explain(jdbcClient, logger, "Full-text search", sql, params);
+            }
+            return jdbcClient.sql(sql)
+                    .params(params)
+                    .query((rs, rowNum) -> VectorStoreRows.document(objectMapper, rs, rs.getDouble("rank")))
+                    .list();
+        });
+    }
+
+    private static ChapterPredicate chapterPredicate(List<ChapterRange> chapters) {
+        Filter.Expression filter = Topic.chapterFilter(chapters);
+        return new ChapterPredicate(filter, MetadataFilterSql.of(filter));
+    }
+
+    /**
+     * The chapters as a vector store filter, and as a SQL predicate with its parameters for the full-text search.
+     */
+    private record ChapterPredicate(Filter.Expression filter, MetadataFilterSql sql) {
+    }
+}
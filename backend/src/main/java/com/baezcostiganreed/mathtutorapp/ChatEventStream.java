@@ -0,0 +1,278 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Turns a stream of Ollama chat responses into compact server-sent events.
+ * Only the text of the answer is sent, in "delta" events that each carry the tokens generated within a short
+ * window as a JSON string, followed by one "done" event with the timing statistics of the generation, or a "failed" event with a
+ * message for the student if the generation could not be completed. Comment lines are sent as
+ * heartbeats while the model is thinking, so proxies do not close an idle connection.
+ * Deltas are JSON-encoded because EventSource strips one leading space from every data line, which would
+ * join the words at the boundary of two deltas, and newlines in the text would split it into data lines.
+ * Every event has an id of the form {@code streamId:sequence}. The events of an answer are kept for a while,
+ * so a client that reconnects with the {@code Last-Event-ID} header resumes the answer where it was cut off.
+ * The kept events are bounded by their total size on the wire.
+ */
+@Component
+public class ChatEventStream {
+    public static final String DELTA = "delta";
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * The form of the event ids this class sends: a URL-safe Base64 stream id and a sequence number.
+     */
+    private static final Pattern EVENT_ID = Pattern.compile("([A-Za-z0-9_-]{16}):(\\d{1,18})");
+
+    private final ObjectMapper objectMapper;
+    private final int coalesceMaxTokens;
+    private final Duration coalesceWindow;
+    private final Duration heartbeatInterval;
+    private final Duration resumeGracePeriod;
+
+    /**
+     * The events of recent answers by stream id, shared between the original request and resumed ones.
+     */
+    private final Cache<String, Replay> streams;
+
+    private final DistributionSummary eventsPerAnswer;
+    private final DistributionSummary bytesPerAnswer;
+
+    /**
+     * Constructs a new event stream factory.
+     *
+     * @param objectMapper      the mapper the statistics of the "done" event are written with
+     * @param coalesceMaxTokens the largest number of tokens sent in one delta event
+     * @param coalesceWindow    how long tokens are collected before they are sent in one delta event
+     * @param heartbeatInterval how often a heartbeat is sent
+     * @param resumeGracePeriod how long the generation continues after the client disconnected, waiting for it to resume
+     * @param resumeTimeToLive  how long the events of an answer can be replayed
+     * @param resumeMaxBytes    the approximate upper bound on the bytes of the events kept for replay
+     * @param meterRegistry     the registry the events and bytes per answer are published to
+     */
+    public ChatEventStream(ObjectMapper objectMapper,
+                           @Value("${mathtutor.chat.stream.coalesce-max-tokens:16}") int coalesceMaxTokens,
+                           @Value("${mathtutor.chat.stream.coalesce-window:50ms}") Duration coalesceWindow,
+                           @Value("${mathtutor.chat.stream.heartbeat-interval:15s}") Duration heartbeatInterval,
+                           @Value("${mathtutor.chat.stream.resume-grace-period:10s}") Duration resumeGracePeriod,
+                           @Value("${mathtutor.chat.stream.resume-ttl:2m}") Duration resumeTimeToLive,
+                           @Value("${mathtutor.chat.stream.resume-max-bytes:16777216}") long resumeMaxBytes,
+                           MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.coalesceMaxTokens = coalesceMaxTokens;
+        this.coalesceWindow = coalesceWindow;
+        this.heartbeatInterval = heartbeatInterval;
+        this.resumeGracePeriod = resumeGracePeriod;
+        this.streams = Caffeine.newBuilder()
+                .expireAfterWrite(resumeTimeToLive)
+                .maximumWeight(resumeMaxBytes)
+                .weigher((String streamId, Replay replay) ->
+                        (int) Math.min(Integer.MAX_VALUE, 2L * streamId.length() + replay.bytes().get()))
+                .build();
+        this.eventsPerAnswer = DistributionSummary.builder("chat.stream.events")
+                .description("Server-sent events per answer")
+                .register(meterRegistry);
+        this.bytesPerAnswer = DistributionSummary.builder("chat.stream.bytes")
+                .description("Bytes of server-sent events per answer")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts streaming an answer.
+     * If every client has been gone for longer than the grace period, the generation is cancelled and a client
+     * that resumes later receives a "done" event marked as interrupted, numbered after every event sent before.
+     * A stream is weighed again once it completed, when its events are all kept.
+     *
+     * @param responses the responses of the generation; subscribed once, however often the client reconnects
+     * @return the events of the answer
+     */
+    public Flux<ServerSentEvent<String>> start(Flux<OllamaApi.ChatResponse> responses) {
+        byte[] random = new byte[12];
+        RANDOM.nextBytes(random);
+        String streamId = Base64.getUrlEncoder().withoutPadding().encodeToString(random);
+        AtomicBoolean subscribed = new AtomicBoolean();
+        AtomicLong sequence = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        Flux<ServerSentEvent<String>> shared = Flux.defer(() -> subscribed.compareAndSet(false, true)
+                        ? events(streamId, responses, sequence)
+                        : Flux.just(done(streamId, sequence.incrementAndGet(), Map.of("interrupted", true))))
+                .doOnNext(event -> bytes.addAndGet(size(event)))
+                .doOnComplete(() -> reweigh(streamId))
+                .replay()
+                .refCount(1, resumeGracePeriod);
+        streams.put(streamId, new Replay(shared, bytes));
+        return withHeartbeats(shared);
+    }
+
+    private void reweigh(String streamId) {
+        Replay replay = streams.getIfPresent(streamId);
+        if (replay != null) {
+            streams.asMap().replace(streamId, replay);
+        }
+    }
+
+    /**
+     * @return whether the value of a Last-Event-ID header has the form of the ids this class sends;
+     * any other value comes from another client or was tampered with and cannot be resumed
+     */
+    public static boolean isEventId(String lastEventId) {
+        return lastEventId != null && EVENT_ID.matcher(lastEventId).matches();
+    }
+
+    /**
+     * Resumes an answer after the event the client received last.
+     *
+     * @param lastEventId the id of the last event the client received, as checked by {@link #isEventId}
+     * @return the remaining events of the answer, or a "done" event if the answer can no longer be resumed
+     */
+    public Flux<ServerSentEvent<String>> resume(String lastEventId) {
+        Matcher matcher = EVENT_ID.matcher(lastEventId);
+        Replay replay = matcher.matches() ? streams.getIfPresent(matcher.group(1)) : null;
+        if (replay == null) {
+            return Flux.just(done(matcher.matches() ? matcher.group(1) : "unknown", 0, Map.of("expired", true)));
+        }
+        long lastSequence = Long.parseLong(matcher.group(2));
+        return withHeartbeats(replay.events().filter(event -> sequence(event) > lastSequence));
+    }
+
+    private Flux<ServerSentEvent<String>> events(String streamId, Flux<OllamaApi.ChatResponse> responses, AtomicLong sequence) {
+        AtomicReference<OllamaApi.ChatResponse> last = new AtomicReference<>();
+        AtomicLong firstTokenNanos = new AtomicLong(-1);
+        AtomicInteger events = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        long start = System.nanoTime();
+
+        Flux<ServerSentEvent<String>> deltas = responses
+                .doOnNext(last::set)
+                .map(response -> response.message() == null || response.message().content() == null
+                        ? "" : response.message().content())
+                .filter(content -> !content.isEmpty())
+                .doOnNext(content -> firstTokenNanos.compareAndSet(-1, System.nanoTime() - start))
+                .bufferTimeout(coalesceMaxTokens, coalesceWindow)
+                .map(tokens -> event(streamId, sequence.incrementAndGet(), DELTA, json(String.join("", tokens))));
+        Mono<ServerSentEvent<String>> done = Mono.fromCallable(() -> {
+            Map<String, Object> stats = stats(last.get(), firstTokenNanos.get(), System.nanoTime() - start);
+            stats.put("events", events.get() + 1);
+            stats.put("bytes", bytes.get());
+            ServerSentEvent<String> event = done(streamId, sequence.incrementAndGet(), stats);
+            eventsPerAnswer.record(events.get() + 1);
+            bytesPerAnswer.record(bytes.get() + size(event));
+            return event;
+        });
+        return deltas.concatWith(done)
+                .onErrorResume(e -> Mono.fromCallable(() -> {
+                    eventsPerAnswer.record(events.get() + 1);
+                    return event(streamId, sequence.incrementAndGet(), FAILED, failureMessage(e));
+                }))
+                .doOnNext(event -> {
+                    events.incrementAndGet();
+                    bytes.addAndGet(size(event));
+                });
+    }
+
+    private static String failureMessage(Throwable e) {
+        if (e instanceof OllamaBusyException busy) {
+            return busy.getMessage() + ". Please try again in " + Math.max(1, busy.getRetryAfter().toSeconds()) + " seconds.";
+        }
+        return "Sorry, the answer could not be generated. Please try again.";
+    }
+
+    private Flux<ServerSentEvent<String>> withHeartbeats(Flux<ServerSentEvent<String>> events) {
+        Flux<ServerSentEvent<String>> heartbeats = Flux.interval(heartbeatInterval)
+                .map(tick -> ServerSentEvent.<String>builder().comment("heartbeat").build());
+        return events.publish(shared -> Flux.merge(shared, heartbeats.takeUntilOther(shared.then())));
+    }
+
+    private static Map<String, Object> stats(OllamaApi.ChatResponse last, long firstTokenNanos, long elapsedNanos) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ttftMillis", firstTokenNanos < 0 ? null : firstTokenNanos / 1_000_000);
+        stats.put("totalMillis", elapsedNanos / 1_000_000);
+        if (last != null) {
+            stats.put("model", last.model());
+            stats.put("promptTokens", last.promptEvalCount());
+            stats.put("evalTokens", last.evalCount());
+            stats.put("evalMillis", last.evalDuration() == null ? null : last.evalDuration() / 1_000_000);
+            stats.put("loadMillis", last.loadDuration() == null ? null : last.loadDuration() / 1_000_000);
+        }
+        return stats;
+    }
+
+    private ServerSentEvent<String> done(String streamId, long sequence, Map<String, Object> stats) {
+        return event(streamId, sequence, DONE, json(stats));
+    }
+
+    private String json(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ServerSentEvent<String> event(String streamId, long sequence, String type, String data) {
+        return ServerSentEvent.<String>builder()
+                .id(streamId + ":" + sequence)
+                .event(type)
+                .data(data)
+                .build();
+    }
+
+    private static long sequence(ServerSentEvent<String> event) {
+        String id = event.id();
+        return id == null ? 0 : Long.parseLong(id.substring(id.lastIndexOf(':') + 1));
+    }
+
+    /**
+     * The shared events of an answer and the bytes they take on the wire so far.
+     */
+    private record Replay(Flux<ServerSentEvent<String>> events, AtomicLong bytes) {
+    }
+
+    /**
+     * @return the number of bytes the event takes on the wire in {@code text/event-stream} framing
+     */
+    static int size(ServerSentEvent<String> event) {
+        int size = 1;
+        if (event.id() != null) {
+            size += "id:".length() + event.id().length() + 1;
+        }
+        if (event.event() != null) {
+            size += "event:".length() + event.event().length() + 1;
+        }
+        if (event.data() != null) {
+            for (String line : event.data().split("\n", -1)) {
+                size += "data:".length() + line.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,229 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.contextpropagation.ObservationThreadLocalAccessor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+
+/**
+ * Answers questions about a topic: retrieves the chapter content for the question, records the turn in the
+ * session, assembles the prompt and streams the generation through the {@link OllamaGateway}, or replays the
+ * cached answer to a first turn. Used by the {@link ChatController} for the students' questions and by the
+ * {@link AnswerCacheWarmer} for the frequent ones.
+ */
+@Component
+public class ChatService {
+    private static final int TOP_K = 3;
+    private static final double SIMILARITY_THRESHOLD = .6;
+    private static final int MAX_HISTORY = 10;
+    private static final String CHAT_MODEL = "phi4-mini";
+    private static final double TEMPERATURE = .2;
+    private static final double TOP_P = .4;
+
+    private final OllamaGateway ollamaGateway;
+    private final Scheduler retrievalScheduler;
+    private final ChapterRetriever chapterRetriever;
+    private final RetrievalCache retrievalCache;
+    private final SemanticCache semanticCache;
+    private final SessionStore sessionStore;
+    private final DocumentTextLookup documentTextLookup;
+    private final PromptAssembler promptAssembler;
+    private final TopicCatalog topicCatalog;
+    private final AnswerCache answerCache;
+    private final ObservationRegistry observationRegistry;
+
+    @Value("${mathtutor.prompt.num-ctx:4000}")
+    private int numCtx;
+
+    @Value("classpath:/prompts/prompt_template.txt")
+    private Resource systemTemplateResource;
+
+    private String systemPromptTemplate;
+
+    /**
+     * The hash of everything besides the question and documents that shapes an answer, part of the answer cache key.
+     */
+    private String promptFingerprint;
+
+    public ChatService(OllamaGateway ollamaGateway, ChapterRetriever chapterRetriever,
+                       RetrievalCache retrievalCache, SemanticCache semanticCache,
+                       SessionStore sessionStore, DocumentTextLookup documentTextLookup, PromptAssembler promptAssembler,
+                       TopicCatalog topicCatalog, AnswerCache answerCache,
+                       @Value("${mathtutor.chat.retrieval-threads:64}") int retrievalThreads,
+                       MeterRegistry meterRegistry, ObservationRegistry observationRegistry) {
+        this.ollamaGateway = ollamaGateway;
+        this.retrievalScheduler = Schedulers.newBoundedElastic(retrievalThreads, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "retrieval");
+        this.chapterRetriever = chapterRetriever;
+        this.retrievalCache = retrievalCache;
+        this.semanticCache = semanticCache;
+        this.sessionStore = sessionStore;
+        this.documentTextLookup = documentTextLookup;
+        this.promptAssembler = promptAssembler;
+        this.topicCatalog = topicCatalog;
+        this.answerCache = answerCache;
+        this.observationRegistry = observationRegistry;
+        Gauge.builder("chat.sessions", sessionStore, SessionStore::size)
+                .description("Active chat sessions")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void loadSystemPrompt() throws IOException {
+        this.systemPromptTemplate = systemTemplateResource.getContentAsString(Charset.defaultCharset());
+        this.promptFingerprint = ContentHash.of(String.join("\n", systemPromptTemplate, CHAT_MODEL,
+                String.valueOf(numCtx), String.valueOf(TEMPERATURE), String.valueOf(TOP_P), String.valueOf(TOP_K)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retrievalScheduler.dispose();
+    }
+
+    /**
+     * Answers a question as the first turn of a conversation, without recording it in any session.
+     * Used to fill the answer cache with the answers to frequent questions.
+     */
+    public Flux<OllamaApi.ChatResponse> answerFirstTurn(String topic, String question) {
+        List<ChapterRange> chapters = topicCatalog.find(topic).map(Topic::chapters).orElse(List.of());
+        return answer(topic, question, null, chapters);
+    }
+
+    /**
+     * Prepares and answers a question within a "chat" observation, whose stages are observed as child spans:
+     * retrieval, session and prompt assembly here, the wait for a generation slot and the generation in the
+     * {@link OllamaGateway}, which finds the observation in the subscriber context.
+     * Nothing runs until the answer is subscribed to; retrieval then runs on the retrieval scheduler and
+     * the answer is streamed from the threads of the Ollama client.
+     *
+     * @param sessionId the session to record the turn in, or null to answer without a session
+     * @param chapters  the chapters to search; an empty list searches every document
+     */
+    public Flux<OllamaApi.ChatResponse> answer(String topic, String usermessage, String sessionId, List<ChapterRange> chapters) {
+        return Flux.defer(() -> {
+            Observation observation = Observation.createNotStarted("chat", observationRegistry)
+                    .lowCardinalityKeyValue("topic", topicCatalog.find(topic).map(Topic::name).orElse("other"))
+                    .lowCardinalityKeyValue("first.turn", "unknown")
+                    .lowCardinalityKeyValue("answer", "none")
+                    .start();
+            return Mono.fromCallable(() -> prepare(topic, usermessage, sessionId, chapters, observation))
+                    .subscribeOn(retrievalScheduler)
+                    .flatMapMany(chat -> generate(topic, usermessage, chat, observation))
+                    .doOnError(observation::error)
+                    .doFinally(signal -> observation.stop())
+                    .contextWrite(Context.of(ObservationThreadLocalAccessor.KEY, observation));
+        });
+    }
+
+    /**
+     * Serves the first turn of a conversation from the answer cache when it can, and generates every other answer.
+     */
+    private Flux<OllamaApi.ChatResponse> generate(String topic, String usermessage, PreparedChat chat, Observation observation) {
+        if (!chat.firstTurn() || !answerCache.isEnabled()) {
+            observation.lowCardinalityKeyValue("answer", "generated");
+            return ollamaGateway.streamingChat(chat.request());
+        }
+        String key = AnswerCache.key(topic, usermessage, chat.documentIds(), promptFingerprint);
+        Optional<Flux<OllamaApi.ChatResponse>> cached = answerCache.replay(key);
+        observation.lowCardinalityKeyValue("answer", cached.isPresent() ? "cached" : "generated");
+        return cached.orElseGet(() -> answerCache.record(key, ollamaGateway.streamingChat(chat.request())));
+    }
+
+    /**
+     * Retrieves the chapter content for the question, records the turn in the session and assembles the prompt.
+     * This blocks on the embedding model and the database, so it runs on the retrieval scheduler rather than
+     * on the request thread.
+     *
+     * @param sessionId the session to record the turn in, or null to answer without a session
+     */
+    private PreparedChat prepare(String topic, String usermessage, String sessionId, List<ChapterRange> chapters,
+                                 Observation parent) {
+        String cacheKey = RetrievalCache.key(topic, usermessage);
+        Observation retrieval = stage("chat.retrieval", parent).lowCardinalityKeyValue("source", "retrieval-cache");
+        List<Document> chapterResults = retrieval.observe(() -> retrievalCache.get(cacheKey, key -> {
+            String query = "Steps to find the solution. How to Solve. " + topic + " " + usermessage;
+            Supplier<List<Document>> search = () -> {
+                retrieval.lowCardinalityKeyValue("source", "search");
+                return chapterRetriever.search(query, usermessage, chapters, TOP_K, SIMILARITY_THRESHOLD);
+            };
+            // Only catalog topics are cached semantically, so free-text topics cannot grow the cache without bound.
+            return topicCatalog.find(topic).map(catalogTopic -> {
+                retrieval.lowCardinalityKeyValue("source", "semantic-cache");
+                return semanticCache.get(catalogTopic, query, search);
+            }).orElseGet(search);
+        }));
+
+        String chapterContent = chapterContent(chapterResults);
+
+        String systemPrompt = String.format(systemPromptTemplate, topic);
+
+        List<String> documentIds = chapterResults.stream().map(Document::getId).toList();
+        documentTextLookup.remember(chapterResults);
+        List<PromptTurn> historyTurns = stage("chat.session", parent).observe(() -> {
+            List<SessionTurn> history = sessionId == null
+                    ? List.of()
+                    : sessionStore.appendAndSnapshot(sessionId, new SessionTurn(usermessage, documentIds), MAX_HISTORY);
+
+            Map<String, String> historyTexts = documentTextLookup.texts(history.stream()
+                    .flatMap(turn -> turn.documentIds().stream())
+                    .collect(Collectors.toSet()));
+            return history.stream()
+                    .map(turn -> new PromptTurn(turn.userMessage(), turn.documentIds().stream()
+                            .map(historyTexts::get)
+                            .filter(Objects::nonNull)
+                            .collect(Collectors.joining("\n "))))
+                    .toList();
+        });
+
+        AssembledPrompt prompt = stage("chat.prompt.assembly", parent).observe(() ->
+                promptAssembler.assemble(systemPrompt, historyTurns, new PromptTurn(usermessage, chapterContent)));
+        parent.lowCardinalityKeyValue("first.turn", String.valueOf(historyTurns.isEmpty()));
+
+        OllamaApi.ChatRequest request = OllamaApi.ChatRequest.builder(CHAT_MODEL)
+                .stream(true)
+                .messages(prompt.messages())
+                .options(OllamaOptions.builder()
+                        .numCtx(numCtx)
+                        .temperature(TEMPERATURE)
+                        .topP(TOP_P)
+                        .build())
+                .build();
+        return new PreparedChat(request, historyTurns.isEmpty(), documentIds);
+    }
+
+    private Observation stage(String name, Observation parent) {
+        return Observation.createNotStarted(name, observationRegistry).parentObservation(parent);
+    }
+
+    private record PreparedChat(OllamaApi.ChatRequest request, boolean firstTurn, List<String> documentIds) {
+    }
+
+    private static String chapterContent(List<Document> chapterResults) {
+        return chapterResults != null && !chapterResults.isEmpty()
+                ? chapterResults.stream().map(Document::getText).collect(Collectors.joining("\n "))
+                : "No documents provided\n";
+    }
+}
@@ -0,0 +1,50 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+
+/**
+ * SHA-256 content hashes, used to detect whether a document or page changed since it was stored.
+ */
+public final class ContentHash {
+
+    private ContentHash() {
+    }
+
+    /**
+     * @return the hex-encoded SHA-256 hash of the text's UTF-8 bytes
+     */
+    public static String of(String text) {
+        return HexFormat.of().formatHex(sha256().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @return the hex-encoded SHA-256 hash of the resource's bytes
+     */
+    public static String of(Resource resource) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = resource.getInputStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
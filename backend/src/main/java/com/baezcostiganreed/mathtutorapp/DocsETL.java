@@ -3,64 +3,101 @@ package com.baezcostiganreed.mathtutorapp;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
 import org.springframework.ai.reader.ExtractedTextFormatter;
-import org.springframework.ai.reader.pdf.PagePdfDocumentReader;
 import org.springframework.ai.reader.pdf.config.PdfDocumentReaderConfig;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.io.Resource;
-import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
  * A component responsible for extracting text from PDF documents,
  * transforming the text by chinking it and creating vector embeddings,
  * and storing the vector embeddings in a database.
+ * Ingestion runs in the background once the application has started, so books that are
+ * already indexed can be served while the others are still being ingested.
+ * When the in-process vector index is the configured vector store, it is rebuilt from the stored vectors
+ * and written to its snapshot whenever it does not match the version of the ingestion manifest: at startup, when
+ * the snapshot is missing or was written before the last ingestion, and after the ingestion of a book changed its
+ * chunks. Books are only reported ready once the index matches, so a book is never searched in an index that does
+ * not hold its current chunks.
  */
 @Component
 public class DocsETL {
-    private final VectorStore vectorStore;
+    private final PdfIngestionPipeline ingestionPipeline;
 
     @Value("classpath:/docs/pdf/*.pdf")
     private List<Resource> pdfResources;
 
     private static final Logger logger = LoggerFactory.getLogger(DocsETL.class);
-    private final JdbcClient jdbcClient;
+    private final IngestionManifest manifest;
+    private final RetrievalCache retrievalCache;
+    private final SemanticCache semanticCache;
+    private final IngestionStatus ingestionStatus;
+    private final TopicCatalog topicCatalog;
+    private final AnswerCache answerCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final HnswVectorStore vectorIndex;
+
+    /**
+     * Whether the startup ingestion has finished, so the manifest can be used to validate the topic catalog.
+     */
+    private volatile boolean ingestionFinished;
 
     /**
      * Constructs a new instance of this ETL component.
      *
-     * @param jdbcClient  the JDBC client used to query the database
-     * @param vectorStore the vector store where the vector embeddings will be stored
+     * @param manifest          the manifest recording which documents are stored
+     * @param ingestionPipeline the pipeline that reads, chunks, embeds and stores the PDFs
+     * @param retrievalCache    the cache of search results to invalidate once new vectors are stored
+     * @param semanticCache     the cache of similar questions to invalidate once new vectors are stored
+     * @param ingestionStatus   the tracker of which books are indexed
+     * @param topicCatalog      the catalog of topics whose chapter ranges are validated against the ingested books
+     * @param answerCache       the cache of answers to invalidate once the topic catalog changed
+     * @param eventPublisher    the publisher used to announce that the startup ingestion has finished
+     * @param vectorIndex       the in-process vector index, available when it is the configured vector store
      */
-    public DocsETL(JdbcClient jdbcClient, VectorStore vectorStore) {
-        this.jdbcClient = jdbcClient;
-        this.vectorStore = vectorStore;
+    public DocsETL(IngestionManifest manifest, PdfIngestionPipeline ingestionPipeline, RetrievalCache retrievalCache,
+                   SemanticCache semanticCache, IngestionStatus ingestionStatus, TopicCatalog topicCatalog,
+                   AnswerCache answerCache, ApplicationEventPublisher eventPublisher,
+                   ObjectProvider<HnswVectorStore> vectorIndex) {
+        this.manifest = manifest;
+        this.ingestionPipeline = ingestionPipeline;
+        this.retrievalCache = retrievalCache;
+        this.semanticCache = semanticCache;
+        this.ingestionStatus = ingestionStatus;
+        this.topicCatalog = topicCatalog;
+        this.answerCache = answerCache;
+        this.eventPublisher = eventPublisher;
+        this.vectorIndex = vectorIndex.getIfAvailable();
     }
 
     /**
-     * Checks whether the vector store is empty and whether the file_name already exists in metadata.
+     * Checks the ingestion manifest for the document.
      *
-     * @return false if the vector store is empty, true if it is not empty and the file_name already exists in metadata
+     * @return true if the document with this content hash was fully ingested, false if it is new, changed or its last ingestion did not complete
      */
-    private boolean isDocumentProcessed(String documentName) {
-        String countQuery = "SELECT COUNT(*) FROM vector_store";
-        Integer count = jdbcClient.sql(countQuery)
-                .query(Integer.class)
-                .single();
-        if (count == 0) {
-            return false;
-        } else {
-            String query = "SELECT COUNT(*) FROM vector_store WHERE metadata->>'file_name' = :documentName";
-            Integer metadatacount = jdbcClient.sql(query)
-                    .param("documentName", documentName)
-                    .query(Integer.class)
-                    .single();
-            return metadatacount > 0;
-        }
+    private boolean isDocumentProcessed(String documentName, String contentHash) {
+        return manifest.find(documentName)
+                .map(entry -> entry.isComplete(contentHash))
+                .orElse(false);
     }
 
     /**
@@ -80,38 +117,189 @@ public class DocsETL {
 
 
     /**
-     * Reads the PDF with pdfReader, chunks and creates vector embeddings with textSplitter, and stores the vector embeddings in the vector store database.
+     * Reads the PDF a batch of pages at a time, chunks and creates vector embeddings with textSplitter, and stores the vector embeddings in the vector store database.
      */
-    private void processPDFAndStoreVectors(Resource pdfResource, TokenTextSplitter textSplitter, PdfDocumentReaderConfig config) {
-        PagePdfDocumentReader pdfReader = new PagePdfDocumentReader(pdfResource, config);
-        vectorStore.accept(textSplitter.apply(pdfReader.get()));
-        logger.info("PDF processing and vector storage completed successfully: " + pdfResource.getFilename());
+    private CompletableFuture<IngestionResult> processPDFAndStoreVectors(Resource pdfResource, String contentHash, TokenTextSplitter textSplitter, PdfDocumentReaderConfig config) {
+        return ingestionPipeline.submit(pdfResource, contentHash, textSplitter, config)
+                .whenComplete((result, e) -> {
+                    if (e != null) {
+                        ingestionStatus.failed(pdfResource.getFilename());
+                        logger.error("Error during processing of document: " + pdfResource.getFilename(), e);
+                    } else if (!refreshVectorIndexIfStale()) {
+                        ingestionStatus.failed(pdfResource.getFilename());
+                    } else {
+                        if (result.changedPages() > 0) {
+                            retrievalCache.invalidateAll();
+                            semanticCache.invalidateAll();
+                        }
+                        ingestionStatus.ready(pdfResource.getFilename());
+                        logger.info("PDF processing and vector storage completed successfully: " + result);
+                    }
+                });
     }
 
     /**
-     * Initializes the ETL process for the PDF document if the vector store is empty or the document's file name is not in the metadata.
+     * Registers every PDF as pending, so topics of books that are not checked yet are reported as still indexing.
      */
     @PostConstruct
+    public void registerDocuments() {
+        for (Resource pdfResource : pdfResources) {
+            ingestionStatus.pending(pdfResource.getFilename());
+        }
+    }
 
+    /**
+     * Initializes the ETL process for the PDF documents that are new, changed, or whose last ingestion did not complete.
+     * The documents are ingested concurrently in the background once the application is ready.
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
     public void init() {
         PdfDocumentReaderConfig config = createPdfDocumentReaderConfig();
-        new TokenTextSplitter();
         TokenTextSplitter textSplitter = TokenTextSplitter.builder()
 //                .withChunkSize(1500)
                 .build();
+        long start = System.nanoTime();
+        List<Resource> processed = new ArrayList<>();
+        Map<Resource, String> unprocessed = new LinkedHashMap<>();
         for (Resource pdfResource : pdfResources) {
-            if (!isDocumentProcessed(pdfResource.getFilename())) {
-
-                try {
-                    processPDFAndStoreVectors(pdfResource, textSplitter, config);
-                } catch (Exception e) {
-                    logger.error("Error during processing of document: " + pdfResource.getFilename(), e);
-                }
+            String contentHash;
+            try {
+                contentHash = ContentHash.of(pdfResource);
+            } catch (IOException e) {
+                ingestionStatus.failed(pdfResource.getFilename());
+                logger.error("Error during processing of document: " + pdfResource.getFilename(), e);
+                continue;
+            }
+            if (isDocumentProcessed(pdfResource.getFilename(), contentHash)) {
+                processed.add(pdfResource);
             } else {
+                unprocessed.put(pdfResource, contentHash);
+            }
+        }
+
+        boolean indexCurrent = refreshVectorIndexIfStale();
+        for (Resource pdfResource : processed) {
+            if (indexCurrent) {
+                ingestionStatus.ready(pdfResource.getFilename());
                 logger.info("PDF document already processed: " + pdfResource.getFilename());
+            } else {
+                ingestionStatus.failed(pdfResource.getFilename());
             }
         }
+        List<CompletableFuture<IngestionResult>> ingestions = new ArrayList<>();
+        unprocessed.forEach((pdfResource, contentHash) ->
+                ingestions.add(processPDFAndStoreVectors(pdfResource, contentHash, textSplitter, config)));
+        if (ingestions.isEmpty()) {
+            finishIngestion();
+            return;
+        }
+
+        int pages = 0;
+        int changedPages = 0;
+        int chunks = 0;
+        for (CompletableFuture<IngestionResult> ingestion : ingestions) {
+            IngestionResult result = ingestion.exceptionally(e -> null).join();
+            if (result != null) {
+                pages += result.pages();
+                changedPages += result.changedPages();
+                chunks += result.chunks();
+            }
+        }
+        logger.info("Ingestion finished: " + new IngestionResult(ingestions.size() + " documents", pages, changedPages, chunks,
+                Duration.ofNanos(System.nanoTime() - start)));
+        finishIngestion();
+    }
 
+    /**
+     * Rebuilds the in-process vector index if it still does not match the manifest, validates the topic catalog
+     * and announces that the startup ingestion has finished.
+     */
+    private void finishIngestion() {
+        ingestionFinished = true;
+        refreshVectorIndexIfStale();
+        validateTopicCatalog();
+        eventPublisher.publishEvent(new IngestionFinishedEvent(this));
+    }
+
+    /**
+     * Rebuilds the in-process vector index from the vector_store table and writes its snapshot, if the index is
+     * the configured vector store and was not built at the current version of the manifest. Books are ingested
+     * concurrently, so rebuilds are serialized; a rebuild reads the committed chunks of every book, including the
+     * batches of books still being ingested, which are not reported ready and so not searched until their own
+     * rebuild. The search results and answers cached for the old index are dropped.
+     *
+     * @return true if the index matches the manifest, false if it could not be rebuilt
+     */
+    private synchronized boolean refreshVectorIndexIfStale() {
+        if (vectorIndex == null) {
+            return true;
+        }
+        long start = System.nanoTime();
+        List<Document> chunks = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        try {
+            String version = manifest.version();
+            if (version.equals(vectorIndex.corpusVersion())) {
+                return true;
+            }
+            manifest.forEachChunk((chunk, embedding) -> {
+                chunks.add(chunk);
+                embeddings.add(embedding);
+            });
+            vectorIndex.replace(chunks, embeddings, version);
+            answerCache.invalidateAll();
+            retrievalCache.invalidateAll();
+            semanticCache.invalidateAll();
+            logger.info("Vector index rebuilt with " + chunks.size() + " chunks in "
+                    + Duration.ofNanos(System.nanoTime() - start).toMillis() + " ms");
+        } catch (RuntimeException e) {
+            logger.error("Vector index could not be rebuilt", e);
+            return false;
+        }
+        try {
+            vectorIndex.saveSnapshot();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Vector index snapshot could not be saved", e);
+        }
+        return true;
+    }
+
+    /**
+     * Drops the cached search results and answers, whose chapter filters may have changed, and validates the reloaded catalog.
+     * Catalogs loaded before the startup ingestion has finished are validated once it has.
+     */
+    @EventListener(TopicCatalogReloadedEvent.class)
+    public void onTopicCatalogReloaded() {
+        retrievalCache.invalidateAll();
+        semanticCache.invalidateAll();
+        answerCache.invalidateAll();
+        if (ingestionFinished) {
+            validateTopicCatalog();
+        }
+    }
+
+    /**
+     * Checks every chapter range of the topic catalog against the ingestion manifest, so a range that points
+     * at a book that is not ingested or at pages the book does not have is reported instead of silently
+     * returning no context. The problems are logged and exposed on the ingestion status endpoint.
+     */
+    void validateTopicCatalog() {
+        Map<String, Optional<ManifestEntry>> entries = new HashMap<>();
+        List<String> problems = new ArrayList<>();
+        for (Topic topic : topicCatalog.all()) {
+            for (ChapterRange range : topic.chapters()) {
+                Optional<ManifestEntry> entry = entries.computeIfAbsent(range.fileName(), manifest::find);
+                if (entry.isEmpty() || !ManifestEntry.COMPLETE.equals(entry.get().status())) {
+                    problems.add("Topic '" + topic.name() + "' refers to " + range.fileName() + ", which is not ingested");
+                } else if (range.lastPage() > entry.get().pageCount()) {
+                    problems.add("Topic '" + topic.name() + "' refers to pages " + range.firstPage() + "-" + range.lastPage()
+                            + " of " + range.fileName() + ", which has " + entry.get().pageCount() + " pages");
+                }
+            }
+        }
+        problems.forEach(logger::warn);
+        topicCatalog.setProblems(problems);
     }
 
 
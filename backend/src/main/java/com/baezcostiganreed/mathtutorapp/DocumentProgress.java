@@ -0,0 +1,17 @@
+package com.baezcostiganreed.mathtutorapp;
+
+/**
+ * The ingestion progress of one PDF.
+ *
+ * @param fileName  the PDF's file name
+ * @param state     where the PDF is in the ingestion lifecycle
+ * @param pagesRead the number of pages read so far
+ * @param pageCount the total number of pages, or 0 while unknown
+ * @param chunks    the number of chunks stored so far
+ */
+public record DocumentProgress(String fileName, State state, int pagesRead, int pageCount, int chunks) {
+
+    public enum State {
+        PENDING, INDEXING, READY, FAILED
+    }
+}
@@ -0,0 +1,83 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+
+/**
+ * Resolves the IDs of stored documents back to their text, so sessions only need to keep document IDs.
+ * Recently seen documents are served from a bounded cache; the rest are loaded from the vector_store table.
+ */
+@Component
+public class DocumentTextLookup {
+    private final JdbcClient jdbcClient;
+    private final Cache<String, String> texts;
+
+    /**
+     * Constructs a new document text lookup.
+     *
+     * @param jdbcClient    the JDBC client used to query the database
+     * @param maxBytes      the approximate upper bound on the memory held by cached texts
+     * @param meterRegistry the registry the cache's size and hit ratio are published to
+     */
+    public DocumentTextLookup(JdbcClient jdbcClient,
+                              @Value("${mathtutor.document-text-cache.max-bytes:33554432}") long maxBytes,
+                              MeterRegistry meterRegistry) {
+        this.jdbcClient = jdbcClient;
+        this.texts = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String id, String text) -> 2 * (id.length() + text.length()))
+                .recordStats()
+                .build();
+        CacheMetrics.monitor(meterRegistry, texts, "document-text");
+    }
+
+    /**
+     * Caches the text of documents that were just retrieved, since they are likely to be resolved again.
+     */
+    public void remember(List<Document> documents) {
+        for (Document document : documents) {
+            if (document.getText() != null) {
+                texts.put(document.getId(), document.getText());
+            }
+        }
+    }
+
+    /**
+     * Returns the text of the given documents. IDs of documents that no longer exist are left out.
+     *
+     * @param ids the document IDs to resolve
+     * @return the text of each resolved document keyed by its ID
+     */
+    public Map<String, String> texts(Collection<String> ids) {
+        Map<String, String> resolved = new HashMap<>(texts.getAllPresent(ids));
+        List<UUID> missing = ids.stream()
+                .filter(id -> !resolved.containsKey(id))
+                .distinct()
+                .map(UUID::fromString)
+                .toList();
+        if (!missing.isEmpty()) {
+            jdbcClient.sql("SELECT id, content FROM vector_store WHERE id IN (:ids)")
+                    .param("ids", missing)
+                    .query((rs, rowNum) -> Map.entry(rs.getString("id"), Objects.toString(rs.getString("content"), "")))
+                    .list()
+                    .forEach(entry -> {
+                        resolved.put(entry.getKey(), entry.getValue());
+                        texts.put(entry.getKey(), entry.getValue());
+                    });
+        }
+        return resolved;
+    }
+}
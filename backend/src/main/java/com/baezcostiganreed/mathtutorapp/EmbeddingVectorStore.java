@@ -0,0 +1,23 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.List;
+
+/**
+ * A vector store that can also be searched with a query that is already embedded, so a caller that embeds
+ * the query itself, for example to time the embedding on its own, does not have it embedded a second time.
+ */
+public interface EmbeddingVectorStore extends VectorStore {
+
+    /**
+     * Searches with the embedding of the request's query instead of embedding the query.
+     *
+     * @param embedding the embedding of the query
+     * @param request   the search request, whose topK, similarity threshold and filter expression apply
+     * @return the matching documents, most similar first, with their cosine similarity as score
+     */
+    List<Document> similaritySearch(float[] embedding, SearchRequest request);
+}
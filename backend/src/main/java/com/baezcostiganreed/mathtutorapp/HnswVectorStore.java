@@ -0,0 +1,803 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * An in-process vector store over a hierarchical navigable small world (HNSW) graph, for a corpus of a few
+ * textbooks that fits in memory, so a similarity search does not need a round trip to the database.
+ * Vectors are normalized when they are added, so cosine similarity is a dot product.
+ * Searches are pre-filtered: the documents matching a filter expression are found first and cached per
+ * expression. A filter that leaves few documents, such as the chapters of one topic, is answered by comparing
+ * the query with each of them; any other search walks the graph through every node but only collects matching ones.
+ * The index is saved to and loaded from a compact snapshot file, whose vectors can be memory-mapped instead of
+ * being read onto the heap. Deleted documents stay in the graph as tombstones until the index is replaced.
+ * An index built from the database records the version of the ingestion manifest it was built from, which is
+ * saved with the snapshot, so a snapshot that no longer matches the stored chunks is detected and rebuilt.
+ */
+@Primary
+@Component
+@ConditionalOnProperty(name = "mathtutor.vector-store", havingValue = "hnsw")
+public class HnswVectorStore implements EmbeddingVectorStore {
+    private static final Logger logger = LoggerFactory.getLogger(HnswVectorStore.class);
+
+    private static final int MAGIC = 0x484E5357;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+    private static final int MAX_FILTERS = 1024;
+
+    private final EmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final int exactSearchThreshold;
+    private final Path snapshot;
+    private final boolean memoryMapped;
+
+    private volatile Graph graph;
+
+    /**
+     * Constructs a new HNSW vector store.
+     *
+     * @param embeddingModel       the model used to embed added documents and search queries
+     * @param objectMapper         the mapper document metadata is written to and read from the snapshot with
+     * @param m                    the number of neighbors of a node on the upper layers, twice that on the bottom layer
+     * @param efConstruction       the number of candidates considered when the neighbors of a new node are chosen
+     * @param efSearch             the number of candidates considered by a search, at least topK
+     * @param exactSearchThreshold the largest number of documents matching a filter that are compared with the query one by one
+     * @param snapshot             the file the index is saved to and loaded from
+     * @param memoryMapped         whether the vectors of a loaded snapshot are memory-mapped instead of read onto the heap
+     */
+    public HnswVectorStore(EmbeddingModel embeddingModel, ObjectMapper objectMapper,
+                           @Value("${mathtutor.hnsw.m:16}") int m,
+                           @Value("${mathtutor.hnsw.ef-construction:200}") int efConstruction,
+                           @Value("${mathtutor.hnsw.ef-search:64}") int efSearch,
+                           @Value("${mathtutor.hnsw.exact-search-threshold:1000}") int exactSearchThreshold,
+                           @Value("${mathtutor.hnsw.snapshot:data/vector-index.hnsw}") Path snapshot,
+                           @Value("${mathtutor.hnsw.memory-mapped:false}") boolean memoryMapped) {
+        this.embeddingModel = embeddingModel;
+        this.objectMapper = objectMapper;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.exactSearchThreshold = exactSearchThreshold;
+        this.snapshot = snapshot;
+        this.memoryMapped = memoryMapped;
+        this.graph = new Graph(m);
+    }
+
+    /**
+     * Loads the snapshot, if there is one, so searches can be served before the startup ingestion has finished.
+     * An unreadable snapshot is ignored; the index is then rebuilt once the ingestion has finished.
+     */
+    @PostConstruct
+    public void loadSnapshot() {
+        if (!Files.exists(snapshot)) {
+            logger.info("No vector index snapshot at " + snapshot + ", the index is built after ingestion");
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            graph = read(snapshot);
+            logger.info("Loaded vector index snapshot " + snapshot + " with " + size() + " documents in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms" + (memoryMapped ? ", vectors memory-mapped" : ""));
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Vector index snapshot " + snapshot + " could not be read, the index is rebuilt after ingestion", e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "hnsw";
+    }
+
+    /**
+     * Drops the nodes matched by the filters of the previous catalog.
+     */
+    @EventListener(TopicCatalogReloadedEvent.class)
+    public void onTopicCatalogReloaded() {
+        graph.matchingNodes.invalidateAll();
+    }
+
+    /**
+     * @return the version of the ingestion manifest the index was built from, or null if it was not built from it
+     *         or has been changed since
+     */
+    public String corpusVersion() {
+        return graph.corpusVersion;
+    }
+
+    /**
+     * @return the number of documents in the index, not counting deleted ones
+     */
+    public int size() {
+        Graph current = graph;
+        current.lock.readLock().lock();
+        try {
+            return current.size - current.deleted.cardinality();
+        } finally {
+            current.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = embeddingModel.embed(documents.stream().map(Document::getText).toList());
+        Graph current = graph;
+        current.lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                current.insert(documents.get(i), normalize(embeddings.get(i)), efConstruction);
+            }
+            current.corpusVersion = null;
+        } finally {
+            current.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the whole index with the given documents and their precomputed embeddings, for example the chunks
+     * stored in the database. The new graph is built aside, so searches are served by the old one until it is done.
+     *
+     * @param documents     the documents
+     * @param embeddings    the embedding of every document, in the same order
+     * @param corpusVersion the version of the ingestion manifest the documents were read at, or null
+     */
+    public void replace(List<Document> documents, List<float[]> embeddings, String corpusVersion) {
+        Graph replacement = new Graph(m);
+        for (int i = 0; i < documents.size(); i++) {
+            replacement.insert(documents.get(i), normalize(embeddings.get(i)), efConstruction);
+        }
+        replacement.corpusVersion = corpusVersion;
+        graph = replacement;
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        Graph current = graph;
+        current.lock.writeLock().lock();
+        try {
+            for (String id : idList) {
+                Integer node = current.nodesById.remove(id);
+                if (node != null) {
+                    current.delete(node);
+                    current.corpusVersion = null;
+                }
+            }
+        } finally {
+            current.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        Graph current = graph;
+        current.lock.writeLock().lock();
+        try {
+            BitSet matching = current.matching(filterExpression);
+            for (int node = matching.nextSetBit(0); node >= 0; node = matching.nextSetBit(node + 1)) {
+                current.nodesById.remove(current.ids.get(node));
+                current.delete(node);
+                current.corpusVersion = null;
+            }
+        } finally {
+            current.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        return similaritySearch(embeddingModel.embed(request.getQuery()), request);
+    }
+
+    @Override
+    public List<Document> similaritySearch(float[] embedding, SearchRequest request) {
+        return similaritySearch(embedding, request.getTopK(), request.getSimilarityThreshold(), request.getFilterExpression());
+    }
+
+    /**
+     * Searches with a query that is already embedded.
+     *
+     * @param embedding           the embedding of the query
+     * @param topK                the maximum number of results
+     * @param similarityThreshold the minimum cosine similarity of a result
+     * @param filterExpression    the filter over the document metadata, or null to search every document
+     * @return the matching documents, most similar first, with their cosine similarity as score
+     */
+    public List<Document> similaritySearch(float[] embedding, int topK, double similarityThreshold,
+                                           Filter.Expression filterExpression) {
+        float[] query = normalize(embedding);
+        Graph current = graph;
+        current.lock.readLock().lock();
+        try {
+            if (current.size == 0 || topK <= 0) {
+                return List.of();
+            }
+            BitSet allowed = current.matching(filterExpression);
+            int candidates = allowed.cardinality();
+            List<Scored> results;
+            if (candidates <= exactSearchThreshold) {
+                results = current.exactSearch(query, allowed, topK);
+            } else {
+                int entry = current.entry;
+                for (int level = current.maxLevel; level > 0; level--) {
+                    entry = current.greedySearch(query, entry, level);
+                }
+                results = current.searchLayer(query, List.of(entry), Math.max(efSearch, topK), 0, allowed);
+            }
+            List<Document> documents = new ArrayList<>(topK);
+            for (Scored result : results) {
+                if (documents.size() == topK || result.similarity() < similarityThreshold) {
+                    break;
+                }
+                documents.add(Document.builder()
+                        .id(current.ids.get(result.node()))
+                        .text(current.texts.get(result.node()))
+                        .metadata(new HashMap<>(current.metadata.get(result.node())))
+                        .score((double) result.similarity())
+                        .build());
+            }
+            return documents;
+        } finally {
+            current.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the index to the snapshot file. The file is written aside and moved into place,
+     * so a concurrent start never reads a partial snapshot.
+     */
+    public void saveSnapshot() throws IOException {
+        Graph current = graph;
+        current.lock.readLock().lock();
+        try {
+            if (snapshot.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(snapshot.toAbsolutePath().getParent());
+            }
+            Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+            write(current, temporary);
+            Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            current.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The snapshot starts with a header of eight ints: magic, version, dimensions, node count, m, entry node,
+     * top level and a reserved int. The vectors of all nodes follow as one block of floats, which is what is
+     * memory-mapped, then every node's tombstone flag, id, text, metadata and neighbors on each of its levels,
+     * and last the corpus version, empty if there is none.
+     */
+    private void write(Graph graph, Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(graph.dimensions);
+            out.writeInt(graph.size);
+            out.writeInt(graph.m);
+            out.writeInt(graph.entry);
+            out.writeInt(graph.maxLevel);
+            out.writeInt(0);
+            for (int node = 0; node < graph.size; node++) {
+                for (int d = 0; d < graph.dimensions; d++) {
+                    out.writeFloat(graph.component(node, d));
+                }
+            }
+            for (int node = 0; node < graph.size; node++) {
+                out.writeBoolean(graph.deleted.get(node));
+                writeString(out, graph.ids.get(node));
+                writeString(out, graph.texts.get(node));
+                writeString(out, VectorStoreRows.writeMetadata(objectMapper, graph.metadata.get(node)));
+                int[][] levels = graph.neighbors.get(node);
+                out.writeInt(levels.length);
+                for (int[] neighbors : levels) {
+                    out.writeInt(neighbors.length);
+                    for (int neighbor : neighbors) {
+                        out.writeInt(neighbor);
+                    }
+                }
+            }
+            writeString(out, graph.corpusVersion);
+        }
+    }
+
+    private Graph read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a vector index snapshot of version " + VERSION);
+            }
+            int dimensions = header.getInt();
+            int size = header.getInt();
+            Graph graph = new Graph(header.getInt());
+            graph.entry = header.getInt();
+            graph.maxLevel = header.getInt();
+            graph.dimensions = dimensions;
+            graph.size = size;
+
+            long vectorBytes = 4L * size * dimensions;
+            if (memoryMapped) {
+                graph.mappedVectors = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, vectorBytes).asFloatBuffer();
+            } else {
+                graph.vectors = new float[size * dimensions];
+                readFully(channel, Math.toIntExact(vectorBytes)).asFloatBuffer().get(graph.vectors);
+            }
+
+            channel.position(HEADER_BYTES + vectorBytes);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            for (int node = 0; node < size; node++) {
+                boolean deleted = in.readBoolean();
+                String id = readString(in);
+                graph.ids.add(id);
+                graph.texts.add(readString(in));
+                graph.metadata.add(VectorStoreRows.readMetadata(objectMapper, readString(in)));
+                int[][] levels = new int[in.readInt()][];
+                for (int level = 0; level < levels.length; level++) {
+                    levels[level] = new int[in.readInt()];
+                    for (int i = 0; i < levels[level].length; i++) {
+                        levels[level][i] = in.readInt();
+                    }
+                }
+                graph.neighbors.add(levels);
+                if (deleted) {
+                    graph.deleted.set(node);
+                } else {
+                    graph.nodesById.put(id, node);
+                }
+            }
+            String corpusVersion = readString(in);
+            graph.corpusVersion = corpusVersion.isEmpty() ? null : corpusVersion;
+            return graph;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Vector index snapshot is truncated");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float component : vector) {
+            norm += component * component;
+        }
+        float scale = norm == 0 ? 1 : (float) (1 / Math.sqrt(norm));
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    /**
+     * @return whether the metadata satisfies the filter expression
+     */
+    static boolean matches(Filter.Operand operand, Map<String, Object> metadata) {
+        if (operand instanceof Filter.Group group) {
+            return matches(group.content(), metadata);
+        }
+        Filter.Expression expression = (Filter.Expression) operand;
+        return switch (expression.type()) {
+            case AND -> matches(expression.left(), metadata) && matches(expression.right(), metadata);
+            case OR -> matches(expression.left(), metadata) || matches(expression.right(), metadata);
+            case NOT -> !matches(expression.left(), metadata);
+            case EQ -> isEqual(value(expression, metadata), operandValue(expression));
+            case NE -> !isEqual(value(expression, metadata), operandValue(expression));
+            case GT -> compare(value(expression, metadata), operandValue(expression)) > 0;
+            case GTE -> compare(value(expression, metadata), operandValue(expression)) >= 0;
+            case LT -> compare(value(expression, metadata), operandValue(expression)) < 0;
+            case LTE -> compare(value(expression, metadata), operandValue(expression)) <= 0;
+            case IN -> isAnyOf(value(expression, metadata), operandValue(expression));
+            case NIN -> !isAnyOf(value(expression, metadata), operandValue(expression));
+        };
+    }
+
+    private static Object value(Filter.Expression expression, Map<String, Object> metadata) {
+        return metadata.get(VectorStoreRows.metadataKey(expression));
+    }
+
+    private static Object operandValue(Filter.Expression expression) {
+        return ((Filter.Value) expression.right()).value();
+    }
+
+    private static boolean isEqual(Object actual, Object expected) {
+        return actual != null && expected != null && compare(actual, expected) == 0;
+    }
+
+    private static boolean isAnyOf(Object actual, Object expected) {
+        return expected instanceof List<?> values && values.stream().anyMatch(value -> isEqual(actual, value));
+    }
+
+    /**
+     * Compares numbers by value and anything else by its string form; a missing value is smaller than any other.
+     */
+    private static int compare(Object actual, Object expected) {
+        if (actual == null) {
+            return -1;
+        }
+        if (actual instanceof Number a && expected instanceof Number e) {
+            return Double.compare(a.doubleValue(), e.doubleValue());
+        }
+        return actual.toString().compareTo(String.valueOf(expected));
+    }
+
+    /**
+     * A node and its similarity to the query.
+     */
+    private record Scored(int node, float similarity) {
+    }
+
+    /**
+     * The nodes of the index. Nodes are numbered in the order they were added; a graph is searched under its read
+     * lock and changed under its write lock. The vectors are either one heap array of all nodes' vectors or,
+     * for a memory-mapped snapshot, a view of the snapshot file, which is copied onto the heap on the first change.
+     */
+    private static final class Graph {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final int m;
+        private final double levelFactor;
+
+        private int dimensions;
+        private int size;
+        private int entry = -1;
+        private int maxLevel = -1;
+        private float[] vectors = new float[0];
+        private FloatBuffer mappedVectors;
+
+        private final List<String> ids = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+        private final List<Map<String, Object>> metadata = new ArrayList<>();
+        private final List<int[][]> neighbors = new ArrayList<>();
+        private final Map<String, Integer> nodesById = new HashMap<>();
+        private final BitSet deleted = new BitSet();
+        private volatile String corpusVersion;
+
+        /**
+         * The live nodes matching the filter expressions searched recently. Filters come from the topic catalog,
+         * so there is one entry per topic; the entries are dropped on every change and when the catalog is reloaded.
+         */
+        private final Cache<Object, BitSet> matchingNodes = Caffeine.newBuilder()
+                .maximumSize(MAX_FILTERS)
+                .build();
+
+        private Graph(int m) {
+            this.m = m;
+            this.levelFactor = 1 / Math.log(m);
+        }
+
+        private float component(int node, int d) {
+            return mappedVectors != null ? mappedVectors.get(node * dimensions + d) : vectors[node * dimensions + d];
+        }
+
+        /**
+         * The dot products sum into four accumulators, so consecutive multiplications do not wait for each other.
+         */
+        private float similarity(int node, float[] query) {
+            int offset = node * dimensions;
+            if (mappedVectors != null) {
+                FloatBuffer v = mappedVectors;
+                float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                int d = 0;
+                for (; d + 3 < dimensions; d += 4) {
+                    s0 += v.get(offset + d) * query[d];
+                    s1 += v.get(offset + d + 1) * query[d + 1];
+                    s2 += v.get(offset + d + 2) * query[d + 2];
+                    s3 += v.get(offset + d + 3) * query[d + 3];
+                }
+                for (; d < dimensions; d++) {
+                    s0 += v.get(offset + d) * query[d];
+                }
+                return s0 + s1 + s2 + s3;
+            }
+            return dot(vectors, offset, query, 0, dimensions);
+        }
+
+        private float similarity(int node, int other) {
+            if (mappedVectors != null) {
+                float similarity = 0;
+                for (int d = 0; d < dimensions; d++) {
+                    similarity += component(node, d) * component(other, d);
+                }
+                return similarity;
+            }
+            return dot(vectors, node * dimensions, vectors, other * dimensions, dimensions);
+        }
+
+        private static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+            float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            int d = 0;
+            for (; d + 3 < length; d += 4) {
+                s0 += a[aOffset + d] * b[bOffset + d];
+                s1 += a[aOffset + d + 1] * b[bOffset + d + 1];
+                s2 += a[aOffset + d + 2] * b[bOffset + d + 2];
+                s3 += a[aOffset + d + 3] * b[bOffset + d + 3];
+            }
+            for (; d < length; d++) {
+                s0 += a[aOffset + d] * b[bOffset + d];
+            }
+            return s0 + s1 + s2 + s3;
+        }
+
+        private BitSet matching(Filter.Expression filterExpression) {
+            return matchingNodes.get(filterExpression == null ? Boolean.TRUE : filterExpression, filter -> {
+                BitSet matching = new BitSet(size);
+                for (int node = 0; node < size; node++) {
+                    if (!deleted.get(node) && (filterExpression == null || matches(filterExpression, metadata.get(node)))) {
+                        matching.set(node);
+                    }
+                }
+                return matching;
+            });
+        }
+
+        private void delete(int node) {
+            deleted.set(node);
+            matchingNodes.invalidateAll();
+        }
+
+        private void insert(Document document, float[] vector, int efConstruction) {
+            if (size == 0) {
+                dimensions = vector.length;
+            } else if (vector.length != dimensions) {
+                throw new IllegalArgumentException("Expected a vector of " + dimensions + " dimensions, got " + vector.length);
+            }
+            Integer replaced = nodesById.get(document.getId());
+            if (replaced != null) {
+                delete(replaced);
+            }
+            if (mappedVectors != null) {
+                vectors = new float[size * dimensions];
+                mappedVectors.get(0, vectors);
+                mappedVectors = null;
+            }
+            if (vectors.length < (size + 1) * dimensions) {
+                vectors = Arrays.copyOf(vectors, Math.max(2 * vectors.length, (size + 1) * dimensions));
+            }
+
+            int node = size++;
+            System.arraycopy(vector, 0, vectors, node * dimensions, dimensions);
+            ids.add(document.getId());
+            texts.add(document.getText());
+            metadata.add(new HashMap<>(document.getMetadata()));
+            nodesById.put(document.getId(), node);
+            matchingNodes.invalidateAll();
+
+            int level = (int) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * levelFactor);
+            int[][] levels = new int[level + 1][];
+            Arrays.fill(levels, new int[0]);
+            neighbors.add(levels);
+            if (entry < 0) {
+                entry = node;
+                maxLevel = level;
+                return;
+            }
+
+            int nearest = entry;
+            for (int l = maxLevel; l > level; l--) {
+                nearest = greedySearch(vector, nearest, l);
+            }
+            List<Integer> entryPoints = List.of(nearest);
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                List<Scored> candidates = searchLayer(vector, entryPoints, efConstruction, l, null);
+                int[] selected = selectNeighbors(candidates, maxNeighbors(l));
+                levels[l] = selected;
+                for (int neighbor : selected) {
+                    connect(neighbor, node, l);
+                }
+                entryPoints = candidates.stream().map(Scored::node).toList();
+            }
+            if (level > maxLevel) {
+                entry = node;
+                maxLevel = level;
+            }
+        }
+
+        private int maxNeighbors(int level) {
+            return level == 0 ? 2 * m : m;
+        }
+
+        /**
+         * Adds the new node to the neighbors of an existing one, keeping the closest ones once full. Pruning with
+         * the selection heuristic instead would compare every pair of neighbors, which doubled the build time.
+         */
+        private void connect(int node, int newNeighbor, int level) {
+            int[] current = neighbors.get(node)[level];
+            if (current.length < maxNeighbors(level)) {
+                int[] extended = Arrays.copyOf(current, current.length + 1);
+                extended[current.length] = newNeighbor;
+                neighbors.get(node)[level] = extended;
+                return;
+            }
+            List<Scored> candidates = new ArrayList<>(current.length + 1);
+            for (int neighbor : current) {
+                candidates.add(new Scored(neighbor, similarity(neighbor, node)));
+            }
+            candidates.add(new Scored(newNeighbor, similarity(newNeighbor, node)));
+            candidates.sort(Comparator.comparingDouble(Scored::similarity).reversed());
+            neighbors.get(node)[level] = candidates.stream().limit(maxNeighbors(level)).mapToInt(Scored::node).toArray();
+        }
+
+        /**
+         * Picks up to max neighbors from the candidates, best first. A candidate is skipped if it is closer to an
+         * already picked neighbor than to the node, which keeps links in different directions so the graph stays
+         * navigable between clusters; skipped candidates fill any remaining slots.
+         */
+        private int[] selectNeighbors(List<Scored> candidates, int max) {
+            List<Integer> selected = new ArrayList<>(max);
+            List<Integer> skipped = new ArrayList<>();
+            for (Scored candidate : candidates) {
+                if (selected.size() == max) {
+                    break;
+                }
+                boolean diverse = true;
+                for (int neighbor : selected) {
+                    if (similarity(neighbor, candidate.node()) > candidate.similarity()) {
+                        diverse = false;
+                        break;
+                    }
+                }
+                (diverse ? selected : skipped).add(candidate.node());
+            }
+            for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+                selected.add(skipped.get(i));
+            }
+            return selected.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private int greedySearch(float[] query, int start, int level) {
+            int current = start;
+            float best = similarity(current, query);
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                int[][] levels = neighbors.get(current);
+                if (level >= levels.length) {
+                    break;
+                }
+                for (int neighbor : levels[level]) {
+                    float similarity = similarity(neighbor, query);
+                    if (similarity > best) {
+                        best = similarity;
+                        current = neighbor;
+                        improved = true;
+                    }
+                }
+            }
+            return current;
+        }
+
+        /**
+         * Searches one layer from the entry points, keeping the ef best nodes. With allowed nodes, every node is
+         * traversed but only allowed ones are collected, so a filter never cuts the graph into unreachable parts.
+         *
+         * @return the best nodes found, most similar first
+         */
+        private List<Scored> searchLayer(float[] query, List<Integer> entryPoints, int ef, int level, BitSet allowed) {
+            BitSet visited = new BitSet(size);
+            PriorityQueue<Scored> candidates = new PriorityQueue<>(Comparator.comparingDouble(Scored::similarity).reversed());
+            PriorityQueue<Scored> results = new PriorityQueue<>(Comparator.comparingDouble(Scored::similarity));
+            for (int entryPoint : entryPoints) {
+                visited.set(entryPoint);
+                Scored scored = new Scored(entryPoint, similarity(entryPoint, query));
+                candidates.add(scored);
+                if (allowed == null || allowed.get(entryPoint)) {
+                    results.add(scored);
+                }
+            }
+            while (results.size() > ef) {
+                results.poll();
+            }
+            while (!candidates.isEmpty()) {
+                Scored closest = candidates.poll();
+                if (results.size() >= ef && closest.similarity() < results.peek().similarity()) {
+                    break;
+                }
+                int[][] levels = neighbors.get(closest.node());
+                if (level >= levels.length) {
+                    continue;
+                }
+                for (int neighbor : levels[level]) {
+                    if (visited.get(neighbor)) {
+                        continue;
+                    }
+                    visited.set(neighbor);
+                    float similarity = similarity(neighbor, query);
+                    if (results.size() < ef || similarity > results.peek().similarity()) {
+                        Scored scored = new Scored(neighbor, similarity);
+                        candidates.add(scored);
+                        if (allowed == null || allowed.get(neighbor)) {
+                            results.add(scored);
+                            if (results.size() > ef) {
+                                results.poll();
+                            }
+                        }
+                    }
+                }
+            }
+            List<Scored> best = new ArrayList<>(results);
+            best.sort(Comparator.comparingDouble(Scored::similarity).reversed());
+            return best;
+        }
+
+        /**
+         * Compares the query with every allowed node.
+         *
+         * @return the topK most similar allowed nodes, most similar first
+         */
+        private List<Scored> exactSearch(float[] query, BitSet allowed, int topK) {
+            PriorityQueue<Scored> results = new PriorityQueue<>(Comparator.comparingDouble(Scored::similarity));
+            for (int node = allowed.nextSetBit(0); node >= 0; node = allowed.nextSetBit(node + 1)) {
+                float similarity = similarity(node, query);
+                if (results.size() < topK) {
+                    results.add(new Scored(node, similarity));
+                } else if (similarity > results.peek().similarity()) {
+                    results.poll();
+                    results.add(new Scored(node, similarity));
+                }
+            }
+            List<Scored> best = new ArrayList<>(results);
+            best.sort(Comparator.comparingDouble(Scored::similarity).reversed());
+            return best;
+        }
+    }
+}
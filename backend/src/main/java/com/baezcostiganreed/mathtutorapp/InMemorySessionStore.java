@@ -0,0 +1,69 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * A session store that keeps sessions on the heap. Sessions expire after the idle timeout, and the
+ * least valuable sessions are evicted once the stored turns exceed the global memory cap.
+ */
+@Component
+@ConditionalOnProperty(name = "mathtutor.session.store", havingValue = "memory", matchIfMissing = true)
+public class InMemorySessionStore implements SessionStore {
+    private final Cache<String, List<SessionTurn>> sessions;
+
+    /**
+     * Constructs a new in-memory session store.
+     *
+     * @param idleTimeout how long a session is kept after its last access
+     * @param maxBytes    the approximate upper bound on the memory held by all sessions
+     */
+    public InMemorySessionStore(@Value("${mathtutor.session.idle-timeout:30m}") Duration idleTimeout,
+                                @Value("${mathtutor.session.max-bytes:33554432}") long maxBytes) {
+        this.sessions = Caffeine.newBuilder()
+                .expireAfterAccess(idleTimeout)
+                .maximumWeight(maxBytes)
+                .weigher((String sessionId, List<SessionTurn> turns) ->
+                        turns.stream().mapToInt(SessionTurn::estimatedBytes).sum() + 2 * sessionId.length())
+                .build();
+    }
+
+    @Override
+    public List<SessionTurn> turns(String sessionId) {
+        List<SessionTurn> turns = sessions.getIfPresent(sessionId);
+        return turns == null ? List.of() : turns;
+    }
+
+    /**
+     * Runs inside {@code compute}, which locks only the hash bin of this session, so concurrent requests for one
+     * session are applied one after another while unrelated sessions proceed in parallel. Stored lists are
+     * immutable, so readers never observe a half-applied update.
+     */
+    @Override
+    public List<SessionTurn> appendAndSnapshot(String sessionId, SessionTurn turn, int maxTurns) {
+        AtomicReference<List<SessionTurn>> snapshot = new AtomicReference<>(List.of());
+        sessions.asMap().compute(sessionId, (key, turns) -> {
+            List<SessionTurn> previous = turns == null ? List.of() : turns;
+            snapshot.set(previous);
+            List<SessionTurn> updated = new ArrayList<>(previous.size() + 1);
+            updated.addAll(previous);
+            updated.add(turn);
+            return List.copyOf(updated.subList(Math.max(0, updated.size() - maxTurns), updated.size()));
+        });
+        return snapshot.get();
+    }
+
+    @Override
+    public long size() {
+        return sessions.estimatedSize();
+    }
+}
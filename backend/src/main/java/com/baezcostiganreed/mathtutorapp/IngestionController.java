@@ -0,0 +1,33 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@RestController
+public class IngestionController {
+    private final IngestionStatus ingestionStatus;
+    private final TopicCatalog topicCatalog;
+
+    public IngestionController(IngestionStatus ingestionStatus, TopicCatalog topicCatalog) {
+        this.ingestionStatus = ingestionStatus;
+        this.topicCatalog = topicCatalog;
+    }
+
+    /**
+     * Reports the ingestion progress of every book, whether each topic can be served yet,
+     * and the problems found when the topic catalog was validated against the ingested books.
+     */
+    @GetMapping("/ingestion/status")
+    public Map<String, Object> status() {
+        Map<String, Boolean> topics = new TreeMap<>();
+        for (Topic topic : topicCatalog.all()) {
+            topics.put(topic.name(), ingestionStatus.isAvailable(topic.fileNames()));
+        }
+        List<DocumentProgress> documents = ingestionStatus.documents();
+        return Map.of("documents", documents, "topics", topics, "catalogProblems", topicCatalog.problems());
+    }
+}
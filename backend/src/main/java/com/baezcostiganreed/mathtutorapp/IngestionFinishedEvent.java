@@ -0,0 +1,13 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published once the startup ingestion of the PDF documents has finished.
+ */
+public class IngestionFinishedEvent extends ApplicationEvent {
+
+    public IngestionFinishedEvent(DocsETL source) {
+        super(source);
+    }
+}
@@ -0,0 +1,227 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.reader.pdf.PagePdfDocumentReader;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+
+/**
+ * Records which PDFs, pages and chunks are stored in the vector store.
+ * The manifest keeps the content hash, page count, chunk count and status of every PDF, the hash of every page,
+ * and the page every chunk was cut from, so a changed PDF only needs its changed pages re-embedded.
+ * The vector_store table is the store of record, which the in-process vector index is rebuilt from.
+ */
+@Component
+public class IngestionManifest {
+    private final JdbcClient jdbcClient;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Constructs a new ingestion manifest.
+     *
+     * @param jdbcClient   the JDBC client used to query the database
+     * @param jdbcTemplate the JDBC template the rows of replaced pages are written with in batches
+     * @param objectMapper the mapper used to read and write chunk metadata
+     */
+    public IngestionManifest(JdbcClient jdbcClient, NamedParameterJdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+        this.jdbcClient = jdbcClient;
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return the manifest row of the PDF, if it was ever ingested
+     */
+    public Optional<ManifestEntry> find(String fileName) {
+        return jdbcClient.sql("SELECT file_name, content_hash, page_count, chunk_count, status FROM ingestion_manifest WHERE file_name = :fileName")
+                .param("fileName", fileName)
+                .query(ManifestEntry.class)
+                .optional();
+    }
+
+    /**
+     * @return the hash of every stored page of the PDF keyed by page number
+     */
+    public Map<Integer, String> pageHashes(String fileName) {
+        Map<Integer, String> hashes = new HashMap<>();
+        jdbcClient.sql("SELECT page_number, page_hash FROM ingestion_page WHERE file_name = :fileName")
+                .param("fileName", fileName)
+                .query(rs -> {
+                    hashes.put(rs.getInt("page_number"), rs.getString("page_hash"));
+                });
+        return hashes;
+    }
+
+    /**
+     * Marks the PDF as being ingested. A PDF without a manifest row was stored before the manifest existed,
+     * so its chunks cannot be matched to pages and are removed to be ingested again.
+     */
+    @Transactional
+    public void start(String fileName, String contentHash, int pageCount) {
+        if (find(fileName).isEmpty()) {
+            jdbcClient.sql("DELETE FROM vector_store WHERE file_name = :fileName")
+                    .param("fileName", fileName)
+                    .update();
+        }
+        jdbcClient.sql("""
+                        INSERT INTO ingestion_manifest (file_name, content_hash, page_count, chunk_count, status, updated_at)
+                        VALUES (:fileName, :contentHash, :pageCount, 0, :status, now())
+                        ON CONFLICT (file_name) DO UPDATE SET content_hash = EXCLUDED.content_hash,
+                            page_count = EXCLUDED.page_count, status = EXCLUDED.status, updated_at = now()""")
+                .param("fileName", fileName)
+                .param("contentHash", contentHash)
+                .param("pageCount", pageCount)
+                .param("status", ManifestEntry.INDEXING)
+                .update();
+    }
+
+    /**
+     * Atomically replaces the chunks of the given pages: the old chunks of those pages are deleted, the new chunks
+     * are stored with their embeddings, and the page hashes are updated, all in one transaction. The rows of each
+     * table are written in one JDBC batch.
+     * The chunks are embedded by the caller beforehand, so the transaction never waits on the embedding model.
+     *
+     * @param fileName   the PDF the pages belong to
+     * @param pageHashes the new hash of every replaced page keyed by page number
+     * @param chunks     the new chunks of those pages, with page_number metadata
+     * @param embeddings the embedding of every chunk, in the same order
+     */
+    @Transactional
+    public void replacePages(String fileName, Map<Integer, String> pageHashes, List<Document> chunks, List<float[]> embeddings) {
+        if (chunks.size() != embeddings.size()) {
+            throw new IllegalArgumentException("Expected " + chunks.size() + " embeddings, got " + embeddings.size());
+        }
+        if (pageHashes.isEmpty()) {
+            return;
+        }
+        List<Integer> pageNumbers = List.copyOf(pageHashes.keySet());
+        jdbcClient.sql("""
+                        DELETE FROM vector_store WHERE id IN (
+                            SELECT chunk_id FROM ingestion_chunk WHERE file_name = :fileName AND page_number IN (:pageNumbers))""")
+                .param("fileName", fileName)
+                .param("pageNumbers", pageNumbers)
+                .update();
+        jdbcClient.sql("DELETE FROM ingestion_chunk WHERE file_name = :fileName AND page_number IN (:pageNumbers)")
+                .param("fileName", fileName)
+                .param("pageNumbers", pageNumbers)
+                .update();
+
+        SqlParameterSource[] chunkRows = new SqlParameterSource[chunks.size()];
+        for (int i = 0; i < chunks.size(); i++) {
+            Document chunk = chunks.get(i);
+            chunkRows[i] = new MapSqlParameterSource()
+                    .addValue("chunkId", UUID.fromString(chunk.getId()))
+                    .addValue("fileName", fileName)
+                    .addValue("pageNumber", chunk.getMetadata().get(PagePdfDocumentReader.METADATA_START_PAGE_NUMBER))
+                    .addValue("content", chunk.getText())
+                    .addValue("metadata", VectorStoreRows.writeMetadata(objectMapper, chunk.getMetadata()))
+                    .addValue("embedding", new PGvector(embeddings.get(i)));
+        }
+        jdbcTemplate.batchUpdate("""
+                INSERT INTO vector_store (id, content, metadata, embedding)
+                VALUES (:chunkId, :content, CAST(:metadata AS json), :embedding)
+                ON CONFLICT (id) DO UPDATE SET content = EXCLUDED.content, metadata = EXCLUDED.metadata,
+                    embedding = EXCLUDED.embedding""", chunkRows);
+        jdbcTemplate.batchUpdate("INSERT INTO ingestion_chunk (chunk_id, file_name, page_number) VALUES (:chunkId, :fileName, :pageNumber)",
+                chunkRows);
+        jdbcTemplate.batchUpdate("""
+                        INSERT INTO ingestion_page (file_name, page_number, page_hash) VALUES (:fileName, :pageNumber, :pageHash)
+                        ON CONFLICT (file_name, page_number) DO UPDATE SET page_hash = EXCLUDED.page_hash""",
+                pageHashes.entrySet().stream()
+                        .map(page -> new MapSqlParameterSource()
+                                .addValue("fileName", fileName)
+                                .addValue("pageNumber", page.getKey())
+                                .addValue("pageHash", page.getValue()))
+                        .toArray(SqlParameterSource[]::new));
+    }
+
+    /**
+     * Removes the chunks and page hashes of pages beyond the end of a PDF that got shorter, and marks it complete.
+     *
+     * @return the number of chunks stored for the PDF
+     */
+    @Transactional
+    public int complete(String fileName, int pageCount) {
+        jdbcClient.sql("""
+                        DELETE FROM vector_store WHERE id IN (
+                            SELECT chunk_id FROM ingestion_chunk WHERE file_name = :fileName AND page_number > :pageCount)""")
+                .param("fileName", fileName)
+                .param("pageCount", pageCount)
+                .update();
+        jdbcClient.sql("DELETE FROM ingestion_chunk WHERE file_name = :fileName AND page_number > :pageCount")
+                .param("fileName", fileName)
+                .param("pageCount", pageCount)
+                .update();
+        jdbcClient.sql("DELETE FROM ingestion_page WHERE file_name = :fileName AND page_number > :pageCount")
+                .param("fileName", fileName)
+                .param("pageCount", pageCount)
+                .update();
+        int chunkCount = jdbcClient.sql("SELECT COUNT(*) FROM ingestion_chunk WHERE file_name = :fileName")
+                .param("fileName", fileName)
+                .query(Integer.class)
+                .single();
+        jdbcClient.sql("UPDATE ingestion_manifest SET chunk_count = :chunkCount, status = :status, updated_at = now() WHERE file_name = :fileName")
+                .param("fileName", fileName)
+                .param("chunkCount", chunkCount)
+                .param("status", ManifestEntry.COMPLETE)
+                .update();
+        return chunkCount;
+    }
+
+    /**
+     * Marks the ingestion of the PDF as failed, so it is resumed on the next start.
+     */
+    public void failed(String fileName) {
+        jdbcClient.sql("UPDATE ingestion_manifest SET status = :status, updated_at = now() WHERE file_name = :fileName")
+                .param("fileName", fileName)
+                .param("status", ManifestEntry.FAILED)
+                .update();
+    }
+
+    /**
+     * @return a hash of the content hash and chunk count of every completely ingested PDF, which changes whenever
+     *         the chunks of a completed ingestion differ from those of the previous one
+     */
+    public String version() {
+        String completed = jdbcClient.sql("""
+                        SELECT file_name, content_hash, chunk_count FROM ingestion_manifest
+                        WHERE status = :status ORDER BY file_name""")
+                .param("status", ManifestEntry.COMPLETE)
+                .query((rs, rowNum) -> rs.getString("file_name") + "\t" + rs.getString("content_hash") + "\t" + rs.getInt("chunk_count"))
+                .list()
+                .stream()
+                .collect(Collectors.joining("\n"));
+        return ContentHash.of(completed);
+    }
+
+    /**
+     * Passes every stored chunk with its embedding to the action, for rebuilding the in-process vector index.
+     */
+    public void forEachChunk(BiConsumer<Document, float[]> action) {
+        jdbcClient.sql("SELECT id, content, metadata::text AS metadata, embedding::text AS embedding FROM vector_store")
+                .query(rs -> {
+                    Document chunk = Document.builder()
+                            .id(rs.getString("id"))
+                            .text(rs.getString("content"))
+                            .metadata(VectorStoreRows.readMetadata(objectMapper, rs.getString("metadata")))
+                            .build();
+                    action.accept(chunk, new PGvector(rs.getString("embedding")).toArray());
+                });
+    }
+}
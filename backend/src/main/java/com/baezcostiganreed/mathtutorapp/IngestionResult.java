@@ -0,0 +1,40 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import java.time.Duration;
+
+/**
+ * The outcome of ingesting one PDF.
+ *
+ * @param fileName     the PDF's file name
+ * @param pages        the number of pages read
+ * @param changedPages the number of pages that were new or changed since the last ingestion
+ * @param chunks       the number of chunks embedded and stored
+ * @param elapsed      the wall-clock time the ingestion took
+ */
+public record IngestionResult(String fileName, int pages, int changedPages, int chunks, Duration elapsed) {
+
+    /**
+     * @return pages read per second
+     */
+    public double pagesPerSecond() {
+        return perSecond(pages);
+    }
+
+    /**
+     * @return chunks stored per second
+     */
+    public double chunksPerSecond() {
+        return perSecond(chunks);
+    }
+
+    private double perSecond(int count) {
+        double seconds = elapsed.toNanos() / 1e9;
+        return seconds == 0 ? 0 : count / seconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d pages (%d changed), %d chunks in %.1fs (%.1f pages/s, %.1f chunks/s)",
+                fileName, pages, changedPages, chunks, elapsed.toMillis() / 1000.0, pagesPerSecond(), chunksPerSecond());
+    }
+}
@@ -0,0 +1,90 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Tracks the ingestion progress of every PDF, so books that are already indexed can be served
+ * while the others are still being ingested.
+ */
+@Component
+public class IngestionStatus {
+    private final Map<String, DocumentProgress> documents = new ConcurrentHashMap<>();
+
+    /**
+     * Records that a PDF is waiting to be ingested.
+     */
+    public void pending(String fileName) {
+        documents.put(fileName, new DocumentProgress(fileName, DocumentProgress.State.PENDING, 0, 0, 0));
+    }
+
+    /**
+     * Records that a PDF has started ingesting.
+     */
+    public void started(String fileName, int pageCount) {
+        documents.put(fileName, new DocumentProgress(fileName, DocumentProgress.State.INDEXING, 0, pageCount, 0));
+    }
+
+    /**
+     * Records how far the ingestion of a PDF has come.
+     */
+    public void progress(String fileName, int pagesRead, int chunks) {
+        documents.computeIfPresent(fileName, (key, progress) ->
+                new DocumentProgress(fileName, progress.state(), pagesRead, progress.pageCount(), chunks));
+    }
+
+    /**
+     * Records that a PDF is fully indexed and can be searched.
+     */
+    public void ready(String fileName) {
+        documents.compute(fileName, (key, progress) -> progress == null
+                ? new DocumentProgress(fileName, DocumentProgress.State.READY, 0, 0, 0)
+                : new DocumentProgress(fileName, DocumentProgress.State.READY, progress.pagesRead(), progress.pageCount(), progress.chunks()));
+    }
+
+    /**
+     * Records that the ingestion of a PDF failed.
+     */
+    public void failed(String fileName) {
+        documents.compute(fileName, (key, progress) -> progress == null
+                ? new DocumentProgress(fileName, DocumentProgress.State.FAILED, 0, 0, 0)
+                : new DocumentProgress(fileName, DocumentProgress.State.FAILED, progress.pagesRead(), progress.pageCount(), progress.chunks()));
+    }
+
+    /**
+     * A topic is available once any of its books is indexed, or when none of its books is waiting to be
+     * indexed. Books that are not ingested by this application do not hold a topic back.
+     *
+     * @param fileNames the books covering the topic
+     * @return false while every known book of the topic is still pending or indexing
+     */
+    public boolean isAvailable(Collection<String> fileNames) {
+        boolean anyReady = false;
+        boolean anyIndexing = false;
+        for (String fileName : fileNames) {
+            DocumentProgress progress = documents.get(fileName);
+            if (progress == null) {
+                continue;
+            }
+            switch (progress.state()) {
+                case READY -> anyReady = true;
+                case PENDING, INDEXING -> anyIndexing = true;
+                default -> {
+                }
+            }
+        }
+        return anyReady || !anyIndexing;
+    }
+
+    /**
+     * @return the progress of every known PDF
+     */
+    public List<DocumentProgress> documents() {
+        return List.copyOf(documents.values());
+    }
+}
@@ -0,0 +1,130 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * A session store backed by the chat_session tables in Postgres, so sessions survive restarts and
+ * are shared by every instance of the application. Idle sessions are purged periodically, and the sessions
+ * that have not expired are counted periodically rather than on every metrics scrape.
+ */
+@Component
+@ConditionalOnProperty(name = "mathtutor.session.store", havingValue = "jdbc")
+public class JdbcSessionStore implements SessionStore {
+    private static final Logger logger = LoggerFactory.getLogger(JdbcSessionStore.class);
+
+    private final JdbcClient jdbcClient;
+    private final Duration idleTimeout;
+    private volatile long activeSessions;
+
+    /**
+     * Constructs a new JDBC session store.
+     *
+     * @param jdbcClient  the JDBC client used to query the database
+     * @param idleTimeout how long a session is kept after its last access
+     */
+    public JdbcSessionStore(JdbcClient jdbcClient,
+                            @Value("${mathtutor.session.idle-timeout:30m}") Duration idleTimeout) {
+        this.jdbcClient = jdbcClient;
+        this.idleTimeout = idleTimeout;
+    }
+
+    @Override
+    public List<SessionTurn> turns(String sessionId) {
+        return jdbcClient.sql("""
+                        SELECT t.user_message, t.document_ids
+                        FROM chat_session_turn t JOIN chat_session s ON s.session_id = t.session_id
+                        WHERE t.session_id = :sessionId AND s.last_access > now() - make_interval(secs => :idleSeconds)
+                        ORDER BY t.turn_no""")
+                .param("sessionId", sessionId)
+                .param("idleSeconds", idleTimeout.toSeconds())
+                .query((rs, rowNum) -> new SessionTurn(rs.getString("user_message"), split(rs.getString("document_ids"))))
+                .list();
+    }
+
+    /**
+     * Takes a transaction-scoped advisory lock on the session, so concurrent requests for one session, even on
+     * different instances, are applied one after another while unrelated sessions proceed in parallel.
+     * A session that has expired but not been purged yet is deleted first, so renewing it starts an empty history
+     * instead of bringing its old turns back.
+     */
+    @Override
+    @Transactional
+    public List<SessionTurn> appendAndSnapshot(String sessionId, SessionTurn turn, int maxTurns) {
+        jdbcClient.sql("SELECT pg_advisory_xact_lock(hashtext(:sessionId))")
+                .param("sessionId", sessionId)
+                .query((rs, rowNum) -> rowNum)
+                .list();
+        jdbcClient.sql("DELETE FROM chat_session WHERE session_id = :sessionId AND last_access <= now() - make_interval(secs => :idleSeconds)")
+                .param("sessionId", sessionId)
+                .param("idleSeconds", idleTimeout.toSeconds())
+                .update();
+        List<SessionTurn> snapshot = turns(sessionId);
+        jdbcClient.sql("""
+                        INSERT INTO chat_session (session_id, last_access) VALUES (:sessionId, now())
+                        ON CONFLICT (session_id) DO UPDATE SET last_access = now()""")
+                .param("sessionId", sessionId)
+                .update();
+        jdbcClient.sql("INSERT INTO chat_session_turn (session_id, user_message, document_ids) VALUES (:sessionId, :userMessage, :documentIds)")
+                .param("sessionId", sessionId)
+                .param("userMessage", turn.userMessage())
+                .param("documentIds", String.join(",", turn.documentIds()))
+                .update();
+        jdbcClient.sql("""
+                        DELETE FROM chat_session_turn
+                        WHERE session_id = :sessionId AND turn_no <= (
+                            SELECT turn_no FROM chat_session_turn WHERE session_id = :sessionId
+                            ORDER BY turn_no DESC OFFSET :maxTurns LIMIT 1)""")
+                .param("sessionId", sessionId)
+                .param("maxTurns", maxTurns)
+                .update();
+        return snapshot;
+    }
+
+    /**
+     * @return the number of sessions that had not expired when they were last counted
+     */
+    @Override
+    public long size() {
+        return activeSessions;
+    }
+
+    /**
+     * Counts the sessions that have not expired, through the index on their last access.
+     */
+    @Scheduled(fixedDelayString = "${mathtutor.session.count-interval:30s}")
+    public void countActiveSessions() {
+        activeSessions = jdbcClient.sql("SELECT COUNT(*) FROM chat_session WHERE last_access > now() - make_interval(secs => :idleSeconds)")
+                .param("idleSeconds", idleTimeout.toSeconds())
+                .query(Long.class)
+                .single();
+    }
+
+    /**
+     * Deletes the sessions, and with them their turns, that have been idle longer than the timeout.
+     */
+    @Scheduled(fixedDelayString = "${mathtutor.session.cleanup-interval:5m}")
+    public void purgeIdleSessions() {
+        int purged = jdbcClient.sql("DELETE FROM chat_session WHERE last_access < now() - make_interval(secs => :idleSeconds)")
+                .param("idleSeconds", idleTimeout.toSeconds())
+                .update();
+        if (purged > 0) {
+            logger.info("Purged idle sessions: " + purged);
+        }
+    }
+
+    private static List<String> split(String documentIds) {
+        return documentIds == null || documentIds.isEmpty() ? List.of() : Arrays.asList(documentIds.split(","));
+    }
+}
@@ -0,0 +1,23 @@
+package com.baezcostiganreed.mathtutorapp;
+
+/**
+ * The ingestion manifest row of one PDF.
+ *
+ * @param fileName    the PDF's file name
+ * @param contentHash the SHA-256 hash of the PDF's bytes when it was last ingested
+ * @param pageCount   the number of pages of the PDF
+ * @param chunkCount  the number of chunks stored for the PDF
+ * @param status      INDEXING while an ingestion is running, COMPLETE once it succeeded, FAILED otherwise
+ */
+public record ManifestEntry(String fileName, String contentHash, int pageCount, int chunkCount, String status) {
+    public static final String INDEXING = "INDEXING";
+    public static final String COMPLETE = "COMPLETE";
+    public static final String FAILED = "FAILED";
+
+    /**
+     * @return true if the PDF with this content hash is fully ingested
+     */
+    public boolean isComplete(String currentHash) {
+        return COMPLETE.equals(status) && contentHash.equals(currentHash);
+    }
+}
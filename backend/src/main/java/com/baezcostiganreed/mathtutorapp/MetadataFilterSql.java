@@ -0,0 +1,101 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+
+/**
+ * A vector store filter expression translated into a SQL predicate over the vector_store table.
+ * Keys that have a typed, indexed column of their own, file_name and page_number, are matched on that column,
+ * so Postgres can pre-filter through the (file_name, page_number) index; any other key is matched on the text
+ * of its value in the untyped metadata column.
+ *
+ * @param sql    the predicate, starting with {@code AND} so it can be appended to a WHERE clause, or empty for no filter
+ * @param params the named parameters of the predicate
+ */
+record MetadataFilterSql(String sql, Map<String, Object> params) {
+    private static final MetadataFilterSql NONE = new MetadataFilterSql("", Map.of());
+
+    private static final Pattern KEY = Pattern.compile("[A-Za-z0-9_]+");
+
+    /**
+     * Translates a filter expression.
+     *
+     * @param expression the filter expression, or null for no filter
+     * @return the predicate
+     * @throws IllegalArgumentException if a key is not a plain identifier
+     */
+    static MetadataFilterSql of(Filter.Expression expression) {
+        if (expression == null) {
+            return NONE;
+        }
+        Map<String, Object> params = new HashMap<>();
+        return new MetadataFilterSql("\n  AND " + predicate(expression, params), Map.copyOf(params));
+    }
+
+    private static String predicate(Filter.Operand operand, Map<String, Object> params) {
+        if (operand instanceof Filter.Group group) {
+            return predicate(group.content(), params);
+        }
+        Filter.Expression expression = (Filter.Expression) operand;
+        return switch (expression.type()) {
+            case AND -> "(" + predicate(expression.left(), params) + " AND " + predicate(expression.right(), params) + ")";
+            case OR -> "(" + predicate(expression.left(), params) + " OR " + predicate(expression.right(), params) + ")";
+            case NOT -> "NOT " + predicate(expression.left(), params);
+            case EQ -> comparison(expression, "=", params);
+            case NE -> comparison(expression, "<>", params);
+            case GT -> comparison(expression, ">", params);
+            case GTE -> comparison(expression, ">=", params);
+            case LT -> comparison(expression, "<", params);
+            case LTE -> comparison(expression, "<=", params);
+            case IN -> membership(expression, "IN", params);
+            case NIN -> membership(expression, "NOT IN", params);
+        };
+    }
+
+    private static String comparison(Filter.Expression expression, String operator, Map<String, Object> params) {
+        String key = key(expression);
+        return column(key) + " " + operator + " :" + param(key, ((Filter.Value) expression.right()).value(), params);
+    }
+
+    private static String membership(Filter.Expression expression, String operator, Map<String, Object> params) {
+        String key = key(expression);
+        List<?> values = (List<?>) ((Filter.Value) expression.right()).value();
+        if (values.isEmpty()) {
+            return operator.equals("IN") ? "FALSE" : "TRUE";
+        }
+        return column(key) + " " + operator + " (:" + param(key, values, params) + ")";
+    }
+
+    private static String key(Filter.Expression expression) {
+        String key = VectorStoreRows.metadataKey(expression);
+        if (!KEY.matcher(key).matches()) {
+            throw new IllegalArgumentException("Unsupported metadata key in filter: " + key);
+        }
+        return key;
+    }
+
+    private static String column(String key) {
+        return switch (key) {
+            case "file_name", "page_number" -> key;
+            default -> "metadata->>'" + key + "'";
+        };
+    }
+
+    /**
+     * Adds a parameter; values compared with the metadata column are compared as text.
+     */
+    private static String param(String key, Object value, Map<String, Object> params) {
+        String name = "filter" + params.size();
+        boolean typed = key.equals("file_name") || key.equals("page_number");
+        if (!typed) {
+            value = value instanceof List<?> values ? values.stream().map(String::valueOf).toList() : String.valueOf(value);
+        }
+        params.put(name, value);
+        return name;
+    }
+}
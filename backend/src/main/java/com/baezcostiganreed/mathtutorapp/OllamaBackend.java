@@ -0,0 +1,100 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.springframework.ai.ollama.api.OllamaApi;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * One Ollama server of the {@link OllamaBackendPool}, with the load and health figures used to route requests to it.
+ */
+public class OllamaBackend {
+    /**
+     * The weight of the newest time-to-first-token in the moving average.
+     */
+    private static final double TTFT_WEIGHT = 0.3;
+
+    private final String baseUrl;
+    private final OllamaApi api;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile double ttftNanos;
+    private volatile boolean ejected;
+
+    /**
+     * @param baseUrl          the URL of the server
+     * @param api              the client for the server
+     * @param initialTtftNanos the time-to-first-token assumed before the first generation finished
+     */
+    public OllamaBackend(String baseUrl, OllamaApi api, long initialTtftNanos) {
+        this.baseUrl = baseUrl;
+        this.api = api;
+        this.ttftNanos = initialTtftNanos;
+    }
+
+    public String baseUrl() {
+        return baseUrl;
+    }
+
+    public OllamaApi api() {
+        return api;
+    }
+
+    /**
+     * @return the expected time until a new request gets its first token, the moving average of the
+     * time-to-first-token weighted by the number of streams the server would then be running
+     */
+    public double load() {
+        return (inFlight.get() + 1) * ttftNanos;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public double ttftMillis() {
+        return ttftNanos / 1_000_000;
+    }
+
+    public boolean isEjected() {
+        return ejected;
+    }
+
+    void started() {
+        inFlight.incrementAndGet();
+    }
+
+    void finished() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Records the time-to-first-token of a generation, which also shows the server is healthy.
+     */
+    void firstToken(long nanos) {
+        ttftNanos = ttftNanos * (1 - TTFT_WEIGHT) + nanos * TTFT_WEIGHT;
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Records a failed or stalled generation.
+     *
+     * @param ejectAfter the number of consecutive failures after which the server is taken out of rotation
+     * @return true if this failure took the server out of rotation
+     */
+    synchronized boolean failed(int ejectAfter) {
+        if (consecutiveFailures.incrementAndGet() >= ejectAfter && !ejected) {
+            ejected = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Puts the server back into rotation after it answered a health probe.
+     */
+    synchronized void reinstate() {
+        consecutiveFailures.set(0);
+        ejected = false;
+    }
+}
@@ -0,0 +1,201 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.reactive.JdkClientHttpConnector;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * The Ollama servers chat generations are spread over.
+ * Every generation goes to the healthy server with the lowest expected time-to-first-token, which grows with the
+ * number of streams the server is running, among the servers streaming fewer than the configured number of
+ * generations. A server whose generations fail or stall repeatedly is taken out of rotation and probed until it
+ * answers again. A generation that fails before its first token is retried on another server with a free slot,
+ * so the student never sees the failure; once tokens have been streamed, a failure ends the answer.
+ * The {@link OllamaGateway} admits at most as many generations as the servers in rotation have slots.
+ */
+@Component
+public class OllamaBackendPool {
+    private static final Logger logger = LoggerFactory.getLogger(OllamaBackendPool.class);
+
+    private final List<OllamaBackend> backends;
+    private final int maxConcurrent;
+    private final Duration firstTokenTimeout;
+    private final Duration stallTimeout;
+    private final int ejectAfterFailures;
+    private final Counter failovers;
+
+    /**
+     * Constructs a pool of the configured Ollama servers, sharing one HTTP client so connections are kept alive and reused.
+     *
+     * @param baseUrls           the URLs of the Ollama servers
+     * @param maxConcurrent      the number of generations streamed at the same time by each server
+     * @param connectTimeout     how long to wait for a connection to a server
+     * @param firstTokenTimeout  how long a generation may take to produce its first token, which includes loading the model
+     * @param stallTimeout       how long a generation may pause between two tokens
+     * @param ejectAfterFailures the number of consecutive failures after which a server is taken out of rotation
+     * @param meterRegistry      the registry the load and health of every server are published to
+     */
+    public OllamaBackendPool(@Value("${mathtutor.llm.backends:${spring.ai.ollama.base-url:http://localhost:11434}}") List<String> baseUrls,
+                             @Value("${mathtutor.llm.max-concurrent:4}") int maxConcurrent,
+                             @Value("${mathtutor.llm.connect-timeout:5s}") Duration connectTimeout,
+                             @Value("${mathtutor.llm.first-token-timeout:60s}") Duration firstTokenTimeout,
+                             @Value("${mathtutor.llm.stall-timeout:30s}") Duration stallTimeout,
+                             @Value("${mathtutor.llm.eject-after-failures:2}") int ejectAfterFailures,
+                             MeterRegistry meterRegistry) {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(connectTimeout);
+        this.backends = baseUrls.stream()
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .map(url -> new OllamaBackend(url, new OllamaApi(url,
+                        RestClient.builder().requestFactory(requestFactory),
+                        WebClient.builder().clientConnector(new JdkClientHttpConnector(httpClient))),
+                        firstTokenTimeout.toNanos() / 10))
+                .toList();
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("No Ollama backends configured");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.firstTokenTimeout = firstTokenTimeout;
+        this.stallTimeout = stallTimeout;
+        this.ejectAfterFailures = ejectAfterFailures;
+        this.failovers = meterRegistry.counter("ollama.backend.failovers");
+        for (OllamaBackend backend : backends) {
+            Gauge.builder("ollama.backend.in.flight", backend, OllamaBackend::inFlight)
+                    .tag("backend", backend.baseUrl()).register(meterRegistry);
+            Gauge.builder("ollama.backend.ttft", backend, OllamaBackend::ttftMillis)
+                    .tag("backend", backend.baseUrl()).baseUnit("milliseconds").register(meterRegistry);
+            Gauge.builder("ollama.backend.healthy", backend, b -> b.isEjected() ? 0 : 1)
+                    .tag("backend", backend.baseUrl()).register(meterRegistry);
+        }
+        logger.info("Routing chat generations to " + backends.size() + " Ollama backends: "
+                + backends.stream().map(OllamaBackend::baseUrl).toList());
+    }
+
+    /**
+     * @return the number of generations the servers in rotation can stream at the same time, or all servers
+     * if every one of them is out of rotation
+     */
+    public int capacity() {
+        long healthy = backends.stream().filter(backend -> !backend.isEjected()).count();
+        return maxConcurrent * (int) (healthy > 0 ? healthy : backends.size());
+    }
+
+    /**
+     * Streams a chat generation from the least loaded healthy server with a free slot, failing over to the next one
+     * if the generation fails before its first token.
+     *
+     * @param request the chat request, which must have streaming enabled
+     * @return the streamed responses
+     */
+    public Flux<OllamaApi.ChatResponse> streamingChat(OllamaApi.ChatRequest request) {
+        return Flux.defer(() -> attempt(request, new HashSet<>(), null));
+    }
+
+    private Flux<OllamaApi.ChatResponse> attempt(OllamaApi.ChatRequest request, Set<OllamaBackend> tried, Throwable lastError) {
+        OllamaBackend backend = reserve(tried);
+        if (backend == null) {
+            return Flux.error(lastError != null ? lastError : new IllegalStateException("No Ollama backend has a free slot"));
+        }
+        tried.add(backend);
+        AtomicBoolean streaming = new AtomicBoolean();
+        AtomicBoolean finished = new AtomicBoolean();
+        Runnable finish = () -> {
+            if (finished.compareAndSet(false, true)) {
+                backend.finished();
+            }
+        };
+        long start = System.nanoTime();
+        return backend.api().streamingChat(request)
+                .timeout(Mono.delay(firstTokenTimeout), response -> Mono.delay(stallTimeout))
+                .doOnNext(response -> {
+                    if (streaming.compareAndSet(false, true)) {
+                        backend.firstToken(System.nanoTime() - start);
+                    }
+                })
+                .doOnError(e -> failed(backend, e))
+                .doOnTerminate(finish)
+                .doFinally(signal -> finish.run())
+                .onErrorResume(e -> !streaming.get(), e -> {
+                    failovers.increment();
+                    return Flux.defer(() -> attempt(request, tried, e));
+                });
+    }
+
+    /**
+     * Picks the healthy server with the lowest load that was not tried yet and has a free slot, and takes the slot.
+     * If every server is out of rotation, they are all tried anyway, since failing over to a possibly recovered
+     * server beats failing the request.
+     *
+     * @return the server, or null if no server is left to try
+     */
+    private synchronized OllamaBackend reserve(Set<OllamaBackend> tried) {
+        boolean anyHealthy = backends.stream().anyMatch(backend -> !backend.isEjected());
+        OllamaBackend selected = backends.stream()
+                .filter(backend -> !tried.contains(backend))
+                .filter(backend -> !anyHealthy || !backend.isEjected())
+                .filter(backend -> backend.inFlight() < maxConcurrent)
+                .min(Comparator.comparingDouble(OllamaBackend::load))
+                .orElse(null);
+        if (selected != null) {
+            selected.started();
+        }
+        return selected;
+    }
+
+    private void failed(OllamaBackend backend, Throwable e) {
+        if (backend.failed(ejectAfterFailures)) {
+            logger.warn("Ollama backend " + backend.baseUrl() + " taken out of rotation after repeated failures: " + e);
+        } else {
+            logger.warn("Generation on Ollama backend " + backend.baseUrl() + " failed: " + e);
+        }
+    }
+
+    /**
+     * Probes the servers that were taken out of rotation and puts those that answer back into it.
+     */
+    @Scheduled(initialDelayString = "${mathtutor.llm.health-interval:10s}", fixedDelayString = "${mathtutor.llm.health-interval:10s}")
+    public void probeEjectedBackends() {
+        for (OllamaBackend backend : backends) {
+            if (!backend.isEjected()) {
+                continue;
+            }
+            try {
+                backend.api().listModels();
+                backend.reinstate();
+                logger.info("Ollama backend " + backend.baseUrl() + " answered its health probe and is back in rotation");
+            } catch (RuntimeException e) {
+                logger.debug("Ollama backend " + backend.baseUrl() + " is still unavailable: " + e);
+            }
+        }
+    }
+
+    List<OllamaBackend> backends() {
+        return backends;
+    }
+}
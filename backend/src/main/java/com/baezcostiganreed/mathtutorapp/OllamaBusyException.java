@@ -0,0 +1,28 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import java.time.Duration;
+
+
+/**
+ * Thrown when a chat request cannot get a generation slot on the Ollama server, because too many
+ * requests are already waiting or it waited longer than allowed.
+ */
+public class OllamaBusyException extends RuntimeException {
+    private final Duration retryAfter;
+
+    /**
+     * @param message    the reason the request was rejected
+     * @param retryAfter the delay after which the client should try again
+     */
+    public OllamaBusyException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the delay after which the client should try again
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,294 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.contextpropagation.ObservationThreadLocalAccessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+
+/**
+ * The single entry point for chat generations on the Ollama servers.
+ * At most as many generations stream at the same time as the Ollama servers in rotation have slots, the configured
+ * number per server; further requests wait in a fair first-in first-out queue for up to the configured time. When the queue is full, or a request waited too long,
+ * it is rejected at once with an {@link OllamaBusyException}, so a burst of students degrades into quick
+ * "try again" answers instead of every generation slowing down until it times out.
+ * The generations are spread over the Ollama servers of the {@link OllamaBackendPool}, which holds every server to
+ * its own number of slots.
+ * The wait for a slot and the generation are observed as the "ollama.gateway.queue.wait" and "ollama.generation"
+ * spans, children of the observation in the subscriber context, and the prompt evaluation and generation times
+ * Ollama reports in its final response are published as metrics per model.
+ */
+@Component
+public class OllamaGateway {
+    private static final Logger logger = LoggerFactory.getLogger(OllamaGateway.class);
+
+    private static final Observation.Event FIRST_TOKEN = Observation.Event.of("first-token");
+
+    private final OllamaBackendPool backendPool;
+    private final int maxQueue;
+    private final Duration maxWait;
+    private final Duration retryAfter;
+
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private int inFlight;
+
+    private final MeterRegistry meterRegistry;
+    private final ObservationRegistry observationRegistry;
+    private final Counter rejectedQueueFull;
+    private final Counter rejectedTimeout;
+
+    /**
+     * Constructs a new gateway to the Ollama servers.
+     *
+     * @param backendPool         the Ollama servers generations are routed to, whose slots limit the concurrent generations
+     * @param maxQueue            the number of requests that may wait for a generation slot
+     * @param maxWait             how long a request may wait for a generation slot
+     * @param retryAfter          the delay suggested to rejected clients
+     * @param meterRegistry       the registry queue depth, rejections and Ollama's timings are published to
+     * @param observationRegistry the registry the wait for a slot and the generation are observed with
+     */
+    public OllamaGateway(OllamaBackendPool backendPool,
+                         @Value("${mathtutor.llm.max-queue:32}") int maxQueue,
+                         @Value("${mathtutor.llm.max-wait:30s}") Duration maxWait,
+                         @Value("${mathtutor.llm.retry-after:10s}") Duration retryAfter,
+                         MeterRegistry meterRegistry, ObservationRegistry observationRegistry) {
+        this.backendPool = backendPool;
+        this.maxQueue = maxQueue;
+        this.maxWait = maxWait;
+        this.retryAfter = retryAfter;
+        this.meterRegistry = meterRegistry;
+        this.observationRegistry = observationRegistry;
+        this.rejectedQueueFull = meterRegistry.counter("ollama.gateway.rejected", "reason", "queue-full");
+        this.rejectedTimeout = meterRegistry.counter("ollama.gateway.rejected", "reason", "timeout");
+        Gauge.builder("ollama.gateway.queue.depth", this, OllamaGateway::queueDepth).register(meterRegistry);
+        Gauge.builder("ollama.gateway.in.flight", this, OllamaGateway::inFlight).register(meterRegistry);
+    }
+
+    /**
+     * Streams a chat generation once a generation slot is free. The slot is released when the stream
+     * completes, fails or is cancelled by the client.
+     *
+     * @param request the chat request, which must have streaming enabled
+     * @return the streamed responses, or an {@link OllamaBusyException} if no slot became free in time
+     */
+    public Flux<OllamaApi.ChatResponse> streamingChat(OllamaApi.ChatRequest request) {
+        return submit(() -> observeGeneration(request.model(), backendPool.streamingChat(request)));
+    }
+
+    /**
+     * Runs a streaming call once a generation slot is free, and releases the slot when the stream terminates.
+     */
+    <T> Flux<T> submit(Supplier<Flux<T>> call) {
+        return Flux.usingWhen(acquire(),
+                        permit -> call.get(),
+                        permit -> Mono.fromRunnable(permit::release))
+                .doOnDiscard(Permit.class, Permit::release);
+    }
+
+    /**
+     * Checks whether a new request would be rejected right away, so callers can shed it before doing
+     * any work to build its prompt.
+     *
+     * @return true if every generation slot is taken and the queue is full
+     */
+    public synchronized boolean isSaturated() {
+        return inFlight >= backendPool.capacity() && waiters.size() >= maxQueue;
+    }
+
+    /**
+     * @return the delay suggested to clients whose request was rejected
+     */
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Waits for a generation slot, observing the wait including rejections and cancellations.
+     */
+    private Mono<Permit> acquire() {
+        return Mono.deferContextual(context -> {
+            Observation observation = Observation.createNotStarted("ollama.gateway.queue.wait", observationRegistry)
+                    .parentObservation(context.getOrDefault(ObservationThreadLocalAccessor.KEY, null))
+                    .start();
+            return waitForPermit()
+                    .doOnSuccess(permit -> observation.stop())
+                    .doOnError(e -> observation.error(e).stop())
+                    .doOnCancel(observation::stop);
+        });
+    }
+
+    private Mono<Permit> waitForPermit() {
+        return Mono.create(sink -> {
+            Waiter waiter;
+            synchronized (this) {
+                if (inFlight < backendPool.capacity() && waiters.isEmpty()) {
+                    inFlight++;
+                    sink.success(new Permit());
+                    return;
+                }
+                if (waiters.size() >= maxQueue) {
+                    rejectedQueueFull.increment();
+                    sink.error(new OllamaBusyException("Too many questions are being answered right now", retryAfter));
+                    return;
+                }
+                waiter = new Waiter(sink);
+                waiters.addLast(waiter);
+            }
+            waiter.timeout = Schedulers.parallel().schedule(() -> expire(waiter), maxWait.toNanos(), TimeUnit.NANOSECONDS);
+            sink.onCancel(() -> leave(waiter));
+        });
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (this) {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+        }
+        rejectedTimeout.increment();
+        logger.warn("Chat request waited " + maxWait + " for a generation slot and was rejected");
+        waiter.sink.error(new OllamaBusyException("Timed out waiting for a free generation slot", retryAfter));
+    }
+
+    private void leave(Waiter waiter) {
+        synchronized (this) {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+        }
+        waiter.cancelTimeout();
+    }
+
+    /**
+     * Frees the slot of a finished generation and hands the free slots to the longest waiting requests.
+     * Fewer requests than slots freed are admitted while a server is out of rotation, and more once it is back.
+     */
+    private void release() {
+        List<Waiter> admitted = new ArrayList<>();
+        synchronized (this) {
+            inFlight--;
+            int capacity = backendPool.capacity();
+            while (inFlight < capacity && !waiters.isEmpty()) {
+                inFlight++;
+                admitted.add(waiters.pollFirst());
+            }
+        }
+        for (Waiter next : admitted) {
+            next.cancelTimeout();
+            next.sink.success(new Permit());
+        }
+    }
+
+    /**
+     * Observes a generation from its request to its last token, marking the first token with an event and
+     * recording the durations and token counts of Ollama's final response.
+     */
+    private Flux<OllamaApi.ChatResponse> observeGeneration(String model, Flux<OllamaApi.ChatResponse> responses) {
+        return Flux.deferContextual(context -> {
+            Observation observation = Observation.createNotStarted("ollama.generation", observationRegistry)
+                    .lowCardinalityKeyValue("model", model)
+                    .parentObservation(context.getOrDefault(ObservationThreadLocalAccessor.KEY, null))
+                    .start();
+            AtomicBoolean firstToken = new AtomicBoolean();
+            return responses
+                    .doOnNext(response -> {
+                        if (firstToken.compareAndSet(false, true)) {
+                            observation.event(FIRST_TOKEN);
+                        }
+                        if (Boolean.TRUE.equals(response.done())) {
+                            recordStats(model, response, observation);
+                        }
+                    })
+                    .doOnError(observation::error)
+                    .doFinally(signal -> observation.stop());
+        });
+    }
+
+    private void recordStats(String model, OllamaApi.ChatResponse response, Observation observation) {
+        record("ollama.load", model, response.loadDuration());
+        record("ollama.prompt.eval", model, response.promptEvalDuration());
+        record("ollama.eval", model, response.evalDuration());
+        if (response.promptEvalCount() != null) {
+            DistributionSummary.builder("ollama.prompt.tokens").baseUnit("tokens").tag("model", model)
+                    .register(meterRegistry).record(response.promptEvalCount());
+            observation.highCardinalityKeyValue("prompt.tokens", String.valueOf(response.promptEvalCount()));
+        }
+        if (response.evalCount() != null) {
+            DistributionSummary.builder("ollama.eval.tokens").baseUnit("tokens").tag("model", model)
+                    .register(meterRegistry).record(response.evalCount());
+            observation.highCardinalityKeyValue("eval.tokens", String.valueOf(response.evalCount()));
+        }
+        if (response.promptEvalDuration() != null) {
+            observation.highCardinalityKeyValue("prompt.eval.ms", String.valueOf(response.promptEvalDuration() / 1_000_000));
+        }
+        if (response.evalDuration() != null) {
+            observation.highCardinalityKeyValue("eval.ms", String.valueOf(response.evalDuration() / 1_000_000));
+        }
+    }
+
+    private void record(String name, String model, Long nanos) {
+        if (nanos != null) {
+            Timer.builder(name).tag("model", model).register(meterRegistry).record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized int queueDepth() {
+        return waiters.size();
+    }
+
+    private synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * A generation slot. Releasing it more than once has no effect.
+     */
+    private final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                OllamaGateway.this.release();
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final MonoSink<Permit> sink;
+        private volatile Disposable timeout;
+
+        Waiter(MonoSink<Permit> sink) {
+            this.sink = sink;
+        }
+
+        void cancelTimeout() {
+            Disposable scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+import org.springframework.ai.reader.pdf.PagePdfDocumentReader;
+import org.springframework.ai.reader.pdf.config.PdfDocumentReaderConfig;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A streaming ingestion pipeline for PDF documents.
+ * Each PDF is read a batch of pages at a time and split into chunks on its own reader thread, and the chunk
+ * batches are embedded and written to the vector store by a bounded pool of workers. When every worker is busy
+ * and the batch queue is full, the reader thread embeds the next batch itself, which throttles reading to the
+ * speed of embedding, so only a few batches of any book are held in memory at once.
+ * Pages are compared with the hashes in the {@link IngestionManifest}, and only changed pages are re-embedded.
+ * Every PDF is observed as an "ingestion.document" span with "ingestion.read", "ingestion.split", "ingestion.embed"
+ * and "ingestion.store" child spans per batch of pages. A batch is embedded before the manifest transaction that
+ * stores it begins, so no database connection is held while the embedding model works.
+ */
+@Component
+public class PdfIngestionPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(PdfIngestionPipeline.class);
+
+    /**
+     * The hash recorded for a page without text, which has no chunks.
+     */
+    private static final String BLANK_PAGE_HASH = "";
+
+    private final IngestionManifest manifest;
+    private final IngestionStatus ingestionStatus;
+    private final EmbeddingModel embeddingModel;
+    private final TokenCountBatchingStrategy batchingStrategy = new TokenCountBatchingStrategy();
+    private final int batchPages;
+    private final ExecutorService documentExecutor;
+    private final ThreadPoolExecutor embeddingExecutor;
+    private final ObservationRegistry observationRegistry;
+    private final Counter changedPagesCounter;
+    private final Counter unchangedPagesCounter;
+    private final Counter chunksCounter;
+
+    /**
+     * Constructs a new ingestion pipeline.
+     *
+     * @param manifest            the manifest that stores chunks and records which pages they belong to
+     * @param ingestionStatus     the tracker the progress of every PDF is reported to
+     * @param embeddingModel      the model the chunks are embedded with
+     * @param batchPages          the number of pages read, split and embedded together
+     * @param workers             the number of threads embedding and storing chunk batches
+     * @param maxPendingBatches   the number of chunk batches that may wait for a worker
+     * @param parallelDocuments   the number of PDFs read at the same time
+     * @param meterRegistry       the registry the numbers of pages and chunks are published to
+     * @param observationRegistry the registry every PDF and its stages are observed with
+     */
+    public PdfIngestionPipeline(IngestionManifest manifest, IngestionStatus ingestionStatus, EmbeddingModel embeddingModel,
+                                @Value("${mathtutor.ingestion.batch-pages:8}") int batchPages,
+                                @Value("${mathtutor.ingestion.workers:4}") int workers,
+                                @Value("${mathtutor.ingestion.max-pending-batches:8}") int maxPendingBatches,
+                                @Value("${mathtutor.ingestion.parallel-documents:2}") int parallelDocuments,
+                                MeterRegistry meterRegistry, ObservationRegistry observationRegistry) {
+        this.manifest = manifest;
+        this.ingestionStatus = ingestionStatus;
+        this.embeddingModel = embeddingModel;
+        this.batchPages = batchPages;
+        this.documentExecutor = Executors.newFixedThreadPool(parallelDocuments, threadFactory("pdf-reader"));
+        this.embeddingExecutor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxPendingBatches), threadFactory("pdf-embedder"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.observationRegistry = observationRegistry;
+        this.changedPagesCounter = meterRegistry.counter("ingestion.pages", "result", "changed");
+        this.unchangedPagesCounter = meterRegistry.counter("ingestion.pages", "result", "unchanged");
+        this.chunksCounter = meterRegistry.counter("ingestion.chunks");
+    }
+
+    /**
+     * Starts ingesting a PDF in the background. Pages whose text is unchanged since the last ingestion are skipped;
+     * the chunks of every changed page are replaced atomically.
+     *
+     * @param pdfResource  the PDF to ingest
+     * @param contentHash  the hash of the PDF's bytes, recorded in the manifest
+     * @param textSplitter the splitter that chunks every batch of pages
+     * @param config       the PDF reader configuration
+     * @return a future completed with the ingestion's throughput once every chunk has been stored
+     */
+    public CompletableFuture<IngestionResult> submit(Resource pdfResource, String contentHash, TokenTextSplitter textSplitter,
+                                                     PdfDocumentReaderConfig config) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return Observation.createNotStarted("ingestion.document", observationRegistry)
+                        .lowCardinalityKeyValue("file", pdfResource.getFilename())
+                        .observeChecked(() -> ingest(pdfResource, contentHash, textSplitter, config));
+            } catch (Exception e) {
+                manifest.failed(pdfResource.getFilename());
+                throw new CompletionException(e);
+            }
+        }, documentExecutor);
+    }
+
+    private IngestionResult ingest(Resource pdfResource, String contentHash, TokenTextSplitter textSplitter,
+                                   PdfDocumentReaderConfig config) throws Exception {
+        long start = System.nanoTime();
+        String fileName = pdfResource.getFilename();
+        Deque<Future<Integer>> pending = new ArrayDeque<>();
+        int chunks = 0;
+        int changedPages = 0;
+        Observation document = observationRegistry.getCurrentObservation();
+        try (PdfPageReader reader = new PdfPageReader(pdfResource, config)) {
+            logger.info("Ingesting " + fileName + " (" + reader.pageCount() + " pages)");
+            ingestionStatus.started(fileName, reader.pageCount());
+            Map<Integer, String> storedHashes = manifest.pageHashes(fileName);
+            manifest.start(fileName, contentHash, reader.pageCount());
+            while (reader.hasNext()) {
+                int firstPage = reader.pagesRead() + 1;
+                List<Document> pages = stage("ingestion.read", document).observeChecked(() -> reader.next(batchPages));
+
+                Map<Integer, String> changedHashes = new HashMap<>();
+                for (int pageNumber = firstPage; pageNumber <= reader.pagesRead(); pageNumber++) {
+                    if (storedHashes.containsKey(pageNumber)) {
+                        changedHashes.put(pageNumber, BLANK_PAGE_HASH);
+                    }
+                }
+                List<Document> changed = new ArrayList<>();
+                for (Document page : pages) {
+                    int pageNumber = (Integer) page.getMetadata().get(PagePdfDocumentReader.METADATA_START_PAGE_NUMBER);
+                    String pageHash = ContentHash.of(page.getText());
+                    if (pageHash.equals(storedHashes.get(pageNumber))) {
+                        changedHashes.remove(pageNumber);
+                    } else {
+                        changedHashes.put(pageNumber, pageHash);
+                        changed.add(page);
+                    }
+                }
+                changedHashes.entrySet().removeIf(entry -> BLANK_PAGE_HASH.equals(entry.getValue())
+                        && BLANK_PAGE_HASH.equals(storedHashes.get(entry.getKey())));
+                unchangedPagesCounter.increment(reader.pagesRead() - firstPage + 1 - changedHashes.size());
+                if (changedHashes.isEmpty()) {
+                    continue;
+                }
+                changedPages += changedHashes.size();
+                changedPagesCounter.increment(changedHashes.size());
+
+                List<Document> batch = changed.isEmpty() ? List.of() : stage("ingestion.split", document).observe(() -> textSplitter.apply(changed));
+                pending.add(embeddingExecutor.submit(() -> {
+                    List<float[]> embeddings = batch.isEmpty() ? List.of() : stage("ingestion.embed", document).observe(
+                            () -> embeddingModel.embed(batch, EmbeddingOptionsBuilder.builder().build(), batchingStrategy));
+                    stage("ingestion.store", document).observe(() -> manifest.replacePages(fileName, changedHashes, batch, embeddings));
+                    chunksCounter.increment(batch.size());
+                    return batch.size();
+                }));
+                while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+                    chunks += pending.pollFirst().get();
+                }
+                ingestionStatus.progress(fileName, reader.pagesRead(), chunks);
+            }
+            while (!pending.isEmpty()) {
+                chunks += pending.pollFirst().get();
+            }
+            int storedChunks = manifest.complete(fileName, reader.pageCount());
+            ingestionStatus.progress(fileName, reader.pagesRead(), storedChunks);
+            return new IngestionResult(fileName, reader.pagesRead(), changedPages, chunks, Duration.ofNanos(System.nanoTime() - start));
+        } catch (Exception e) {
+            pending.forEach(future -> future.cancel(true));
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        documentExecutor.shutdownNow();
+        embeddingExecutor.shutdownNow();
+    }
+
+    private Observation stage(String name, Observation document) {
+        return Observation.createNotStarted(name, observationRegistry).parentObservation(document);
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
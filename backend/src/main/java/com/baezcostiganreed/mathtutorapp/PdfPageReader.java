@@ -0,0 +1,108 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.reader.pdf.PagePdfDocumentReader;
+import org.springframework.ai.reader.pdf.config.PdfDocumentReaderConfig;
+import org.springframework.ai.reader.pdf.layout.PDFLayoutTextStripperByArea;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StringUtils;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Reads a PDF one batch of pages at a time instead of extracting the whole book up front.
+ * Every non-blank page becomes one document whose text and page_number/file_name metadata match
+ * what {@link PagePdfDocumentReader} produces with one page per document.
+ */
+public class PdfPageReader implements AutoCloseable {
+    private static final String PDF_PAGE_REGION = "pdfPageRegion";
+
+    private final PDDocument document;
+    private final String fileName;
+    private final PdfDocumentReaderConfig config;
+    private final PDFLayoutTextStripperByArea textStripper;
+    private final Iterator<PDPage> pages;
+    private final int pageCount;
+    private int pageNumber = 0;
+
+    /**
+     * Opens the PDF for reading.
+     *
+     * @param pdfResource the PDF to read
+     * @param config      the reader configuration whose text formatter is applied to every page
+     */
+    public PdfPageReader(Resource pdfResource, PdfDocumentReaderConfig config) throws IOException {
+        this.document = new PDFParser(new RandomAccessReadBuffer(pdfResource.getInputStream())).parse();
+        this.fileName = pdfResource.getFilename();
+        this.config = config;
+        this.textStripper = new PDFLayoutTextStripperByArea();
+        this.pages = document.getDocumentCatalog().getPages().iterator();
+        this.pageCount = document.getNumberOfPages();
+    }
+
+    /**
+     * @return the number of pages in the PDF
+     */
+    public int pageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return the number of pages read so far
+     */
+    public int pagesRead() {
+        return pageNumber;
+    }
+
+    /**
+     * @return true if there are pages left to read
+     */
+    public boolean hasNext() {
+        return pages.hasNext();
+    }
+
+    /**
+     * Reads up to {@code maxPages} further pages.
+     *
+     * @return one document per non-blank page, in page order
+     */
+    public List<Document> next(int maxPages) throws IOException {
+        List<Document> documents = new ArrayList<>(maxPages);
+        for (int read = 0; read < maxPages && pages.hasNext(); read++) {
+            PDPage page = pages.next();
+            PDRectangle mediaBox = page.getMediaBox();
+            textStripper.addRegion(PDF_PAGE_REGION, new Rectangle(
+                    (int) mediaBox.getLowerLeftX(),
+                    (int) mediaBox.getLowerLeftY() + config.pageTopMargin,
+                    (int) mediaBox.getWidth(),
+                    (int) mediaBox.getHeight() - (config.pageTopMargin + config.pageBottomMargin)));
+            textStripper.extractRegions(page);
+            String pageText = textStripper.getTextForRegion(PDF_PAGE_REGION);
+            textStripper.removeRegion(PDF_PAGE_REGION);
+            if (StringUtils.hasText(pageText)) {
+                pageText = config.pageExtractedTextFormatter.format(pageText, pageNumber);
+                Document pageDocument = new Document(pageText);
+                pageDocument.getMetadata().put(PagePdfDocumentReader.METADATA_START_PAGE_NUMBER, pageNumber + 1);
+                pageDocument.getMetadata().put(PagePdfDocumentReader.METADATA_FILE_NAME, fileName);
+                documents.add(pageDocument);
+            }
+            pageNumber++;
+        }
+        return documents;
+    }
+
+    @Override
+    public void close() throws IOException {
+        document.close();
+    }
+}
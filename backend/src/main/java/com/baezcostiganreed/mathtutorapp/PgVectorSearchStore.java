@@ -0,0 +1,143 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.pgvector.PGvector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+
+/**
+ * The vector store searched by default: the vector_store table in Postgres. Documents are added and deleted
+ * through {@link PgVectorStore}, but similarity searches run their own query, whose filter is matched on the typed,
+ * indexed file_name and page_number columns instead of a JSON path over the untyped metadata column.
+ * A filtered search always pre-filters: the chapter's rows are selected through the (file_name, page_number) index
+ * into a materialized CTE and ranked exactly, so it returns up to topK matches within the chapters. Left to itself,
+ * the planner may instead scan the HNSW index and drop the other chapters' rows afterwards, which returns fewer
+ * than topK, often none, once the ef_search candidates run out.
+ */
+@Primary
+@Component
+@ConditionalOnProperty(name = "mathtutor.vector-store", havingValue = "pgvector", matchIfMissing = true)
+public class PgVectorSearchStore implements EmbeddingVectorStore {
+    private static final Logger logger = LoggerFactory.getLogger(PgVectorSearchStore.class);
+
+    private static final int MAX_PREDICATES = 1024;
+
+    private final PgVectorStore vectorStore;
+    private final JdbcClient jdbcClient;
+    private final EmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper;
+    private final boolean explainQueries;
+
+    /**
+     * The SQL predicate of the filter expressions searched recently. Filters come from the topic catalog,
+     * so there is one entry per topic; the entries are dropped when the catalog is reloaded.
+     * The empty key stands for no filter.
+     */
+    private final Cache<Optional<Filter.Expression>, MetadataFilterSql> predicates = Caffeine.newBuilder()
+            .maximumSize(MAX_PREDICATES)
+            .build();
+
+    /**
+     * Constructs a new pgvector search store.
+     *
+     * @param vectorStore    the store documents are added to and deleted from
+     * @param jdbcClient     the JDBC client used to query the database
+     * @param embeddingModel the model used to embed search queries
+     * @param objectMapper   the mapper used to read document metadata
+     * @param explainQueries whether to log the query plan of every search, for diagnosing slow searches
+     */
+    public PgVectorSearchStore(PgVectorStore vectorStore, JdbcClient jdbcClient, EmbeddingModel embeddingModel,
+                               ObjectMapper objectMapper,
+                               @Value("${mathtutor.retrieval.explain-queries:false}") boolean explainQueries) {
+        this.vectorStore = vectorStore;
+        this.jdbcClient = jdbcClient;
+        this.embeddingModel = embeddingModel;
+        this.objectMapper = objectMapper;
+        this.explainQueries = explainQueries;
+    }
+
+    @Override
+    public String getName() {
+        return "pgvector";
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        vectorStore.add(documents);
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        vectorStore.delete(idList);
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        vectorStore.delete(filterExpression);
+    }
+
+    /**
+     * Drops the predicates of the filters of the previous catalog.
+     */
+    @EventListener(TopicCatalogReloadedEvent.class)
+    public void onTopicCatalogReloaded() {
+        predicates.invalidateAll();
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        return similaritySearch(embeddingModel.embed(request.getQuery()), request);
+    }
+
+    @Override
+    public List<Document> similaritySearch(float[] embedding, SearchRequest request) {
+        MetadataFilterSql predicate = predicates.get(Optional.ofNullable(request.getFilterExpression()),
+                filter -> MetadataFilterSql.of(filter.orElse(null)));
+        Map<String, Object> params = new HashMap<>(predicate.params());
+        params.put("embedding", new PGvector(embedding));
+        params.put("maxDistance", 1 - request.getSimilarityThreshold());
+        params.put("limit", request.getTopK());
+        String sql = predicate.sql().isEmpty() ? """
+                SELECT id, content, metadata::text AS metadata, embedding <=> :embedding AS distance
+                FROM vector_store
+                WHERE embedding <=> :embedding <= :maxDistance
+                ORDER BY distance
+                LIMIT :limit""" : """
+                WITH chapter AS MATERIALIZED (
+                  SELECT id, content, metadata, embedding
+                  FROM vector_store
+                  WHERE TRUE%s
+                )
+                SELECT id, content, metadata::text AS metadata, embedding <=> :embedding AS distance
+                FROM chapter
+                WHERE embedding <=> :embedding <= :maxDistance
+                ORDER BY distance
+                LIMIT :limit""".formatted(predicate.sql().replace("\n", "\n  "));
+        if (explainQueries) {
+            VectorStoreRows.explain(jdbcClient, logger, "Similarity search", sql, params);
+        }
+        return jdbcClient.sql(sql)
+                .params(params)
+                .query((rs, rowNum) -> VectorStoreRows.document(objectMapper, rs, 1 - rs.getDouble("distance")))
+                .list();
+    }
+}
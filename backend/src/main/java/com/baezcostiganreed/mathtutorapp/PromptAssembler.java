@@ -0,0 +1,135 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+
+/**
+ * Assembles the messages of a chat request within a token budget.
+ * Tokens are counted with the same CL100K encoding {@code TokenTextSplitter} uses to chunk the textbooks.
+ * The system prompt, the new question and its retrieved chapter text always go in, truncating the chapter
+ * text if it alone exceeds the budget. Earlier questions are then added newest first while they fit, and
+ * finally the chapter text of those earlier questions, again newest first, so older context is dropped first.
+ */
+@Component
+public class PromptAssembler {
+    private static final Logger logger = LoggerFactory.getLogger(PromptAssembler.class);
+
+    private static final String NO_DOCUMENTS = "No documents provided\n";
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+    private final int tokenBudget;
+    private final int messageOverheadTokens;
+    private final DistributionSummary promptTokens;
+
+    /**
+     * Constructs a new prompt assembler.
+     *
+     * @param tokenBudget           the number of tokens the prompt may use, leaving the rest of the context window for the answer
+     * @param messageOverheadTokens the tokens the chat template adds around every message
+     * @param meterRegistry         the registry prompt sizes are published to
+     */
+    public PromptAssembler(@Value("${mathtutor.prompt.token-budget:3000}") int tokenBudget,
+                           @Value("${mathtutor.prompt.message-overhead-tokens:4}") int messageOverheadTokens,
+                           MeterRegistry meterRegistry) {
+        this.tokenBudget = tokenBudget;
+        this.messageOverheadTokens = messageOverheadTokens;
+        this.promptTokens = DistributionSummary.builder("prompt.tokens")
+                .baseUnit("tokens")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Assembles the messages for a new question.
+     *
+     * @param systemPrompt the system prompt
+     * @param history      the earlier turns of the session, oldest first
+     * @param current      the new question and its retrieved chapter text
+     * @return the messages and their token accounting
+     */
+    public AssembledPrompt assemble(String systemPrompt, List<PromptTurn> history, PromptTurn current) {
+        int used = count(systemPrompt) + count(current.userMessage());
+        String context = current.context();
+        int contextTokens = count(context);
+        if (used + contextTokens > tokenBudget) {
+            context = truncate(context, Math.max(0, tokenBudget - used - messageOverheadTokens));
+            contextTokens = count(context);
+        }
+        used += contextTokens;
+
+        int size = history.size();
+        boolean[] includeTurn = new boolean[size];
+        int firstIncluded = size;
+        for (int i = size - 1; i >= 0; i--) {
+            int cost = count(history.get(i).userMessage());
+            if (used + cost > tokenBudget) {
+                break;
+            }
+            used += cost;
+            includeTurn[i] = true;
+            firstIncluded = i;
+        }
+
+        boolean[] includeContext = new boolean[size];
+        for (int i = size - 1; i >= firstIncluded; i--) {
+            int cost = count(contextOf(history.get(i)));
+            if (used + cost > tokenBudget) {
+                break;
+            }
+            used += cost;
+            includeContext[i] = true;
+        }
+
+        List<OllamaApi.Message> messages = new ArrayList<>();
+        messages.add(message(OllamaApi.Message.Role.SYSTEM, systemPrompt));
+        for (int i = firstIncluded; i < size; i++) {
+            messages.add(message(OllamaApi.Message.Role.USER, history.get(i).userMessage()));
+            if (includeContext[i]) {
+                messages.add(message(OllamaApi.Message.Role.TOOL, contextOf(history.get(i))));
+            }
+        }
+        messages.add(message(OllamaApi.Message.Role.USER, current.userMessage()));
+        messages.add(message(OllamaApi.Message.Role.TOOL, context));
+
+        int historyTurns = size - firstIncluded;
+        int droppedContexts = (int) IntStream.range(firstIncluded, size).filter(i -> !includeContext[i]).count();
+        promptTokens.record(used);
+        logger.debug("Assembled prompt: " + used + " tokens, " + historyTurns + " earlier turns, "
+                + (size - historyTurns) + " turns and " + droppedContexts + " contexts dropped");
+        return new AssembledPrompt(messages, used, historyTurns, size - historyTurns, droppedContexts);
+    }
+
+    /**
+     * @return the estimated number of tokens the text occupies as a chat message
+     */
+    public int count(String text) {
+        return encoding.countTokens(text) + messageOverheadTokens;
+    }
+
+    private String truncate(String text, int maxTokens) {
+        if (maxTokens <= 0) {
+            return "";
+        }
+        return encoding.decode(encoding.encode(text, maxTokens).getTokens());
+    }
+
+    private static String contextOf(PromptTurn turn) {
+        return turn.context() == null || turn.context().isEmpty() ? NO_DOCUMENTS : turn.context();
+    }
+
+    private static OllamaApi.Message message(OllamaApi.Message.Role role, String content) {
+        return OllamaApi.Message.builder(role).content(content).build();
+    }
+}
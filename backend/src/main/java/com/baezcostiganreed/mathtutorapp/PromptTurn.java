@@ -0,0 +1,10 @@
+package com.baezcostiganreed.mathtutorapp;
+
+/**
+ * A question and the chapter text retrieved for it, as they are sent to the model.
+ *
+ * @param userMessage the student's question
+ * @param context     the retrieved chapter text
+ */
+public record PromptTurn(String userMessage, String context) {
+}
@@ -0,0 +1,45 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.springframework.ai.document.Document;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Merges ranked result lists with reciprocal-rank fusion: every document scores the sum of 1 / (k + rank)
+ * over the lists it appears in. Only ranks are used, so lists whose scores are not comparable, such as cosine
+ * similarities and full-text ranks, can be merged, and documents found by several lists rise to the top.
+ */
+public final class ReciprocalRankFusion {
+
+    private ReciprocalRankFusion() {
+    }
+
+    /**
+     * Fuses the rankings into one.
+     *
+     * @param rankings the result lists, each best first
+     * @param k        the rank offset that damps the weight of the first few ranks; 60 is the usual choice
+     * @param topK     the maximum number of results
+     * @return the documents with the highest fused scores, best first, with the fused score as score
+     */
+    public static List<Document> fuse(List<List<Document>> rankings, int k, int topK) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document document = ranking.get(rank);
+                documents.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (k + rank + 1), Double::sum);
+            }
+        }
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()))
+                .limit(topK)
+                .map(entry -> documents.get(entry.getKey()).mutate().score(entry.getValue()).build())
+                .toList();
+    }
+}
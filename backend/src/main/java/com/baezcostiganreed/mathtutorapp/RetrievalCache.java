@@ -0,0 +1,92 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+
+
+/**
+ * A bounded cache of similarity search results keyed by topic and user message.
+ * Entries are weighed by the size of the retrieved text, evicted with W-TinyLFU once the
+ * configured memory budget is reached, and expire after a fixed time-to-live.
+ */
+@Component
+public class RetrievalCache {
+    private static final Logger logger = LoggerFactory.getLogger(RetrievalCache.class);
+
+    /**
+     * Rough per-entry overhead in bytes for the key, the list and the document objects.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final Cache<String, List<Document>> cache;
+
+    /**
+     * Constructs a new retrieval cache and registers its statistics with the meter registry.
+     *
+     * @param maxBytes      the approximate upper bound on the memory held by cached results
+     * @param timeToLive    how long a result stays cached after it was loaded
+     * @param meterRegistry the registry the hit, miss and eviction counters are published to
+     */
+    public RetrievalCache(@Value("${mathtutor.retrieval-cache.max-bytes:67108864}") long maxBytes,
+                          @Value("${mathtutor.retrieval-cache.ttl:30m}") Duration timeToLive,
+                          MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(RetrievalCache::weigh)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+        CacheMetrics.monitor(meterRegistry, cache, "retrieval");
+    }
+
+    /**
+     * Builds the cache key for a topic and user message.
+     *
+     * @return the normalized key
+     */
+    public static String key(String topic, String usermessage) {
+        return String.join("::", topic.trim(), usermessage.trim()).toLowerCase();
+    }
+
+    /**
+     * Returns the cached documents for the key, running the search and caching its result on a miss.
+     */
+    public List<Document> get(String key, Function<String, List<Document>> search) {
+        return cache.get(key, search);
+    }
+
+    /**
+     * Drops every cached result, for example after new documents were added to the vector store.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+        logger.info("Retrieval cache invalidated");
+    }
+
+    /**
+     * @return a snapshot of the hit, miss and eviction counters
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static int weigh(String key, List<Document> documents) {
+        long bytes = ENTRY_OVERHEAD_BYTES + 2L * key.length();
+        for (Document document : documents) {
+            String text = document.getText();
+            bytes += ENTRY_OVERHEAD_BYTES + (text == null ? 0 : 2L * text.length());
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,184 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+
+/**
+ * A cache of similarity search results keyed by the meaning of the question rather than its exact text.
+ * For every catalog topic it keeps a small in-process index of recent query embeddings, and a new question whose
+ * embedding lies within the configured cosine distance of a cached one reuses the cached documents.
+ * It is disabled by default: embeddings of math questions that differ only in a number or a sign lie very close
+ * together, so a distance has to be validated against real questions of the deployed model before it is enabled.
+ */
+@Component
+public class SemanticCache {
+    private final EmbeddingModel embeddingModel;
+    private final boolean enabled;
+    private final double maxDistance;
+    private final int maxEntriesPerTopic;
+    private final long timeToLiveNanos;
+
+    /**
+     * The index of every catalog topic asked about since the last invalidation, bounded by the size of the catalog.
+     */
+    private final Map<String, TopicIndex> topics = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer latencySaved;
+
+    /**
+     * Constructs a new semantic cache.
+     *
+     * @param embeddingModel     the model used to embed search queries
+     * @param enabled            whether lookups are performed at all
+     * @param maxDistance        the largest cosine distance at which a cached question counts as a match
+     * @param maxEntriesPerTopic the number of recent questions kept per topic
+     * @param timeToLive         how long a cached question stays eligible for matching
+     * @param meterRegistry      the registry hit, miss and latency-saved metrics are published to
+     */
+    public SemanticCache(EmbeddingModel embeddingModel,
+                         @Value("${mathtutor.semantic-cache.enabled:false}") boolean enabled,
+                         @Value("${mathtutor.semantic-cache.max-distance:0.08}") double maxDistance,
+                         @Value("${mathtutor.semantic-cache.max-entries-per-topic:500}") int maxEntriesPerTopic,
+                         @Value("${mathtutor.semantic-cache.ttl:30m}") Duration timeToLive,
+                         MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.enabled = enabled;
+        this.maxDistance = maxDistance;
+        this.maxEntriesPerTopic = maxEntriesPerTopic;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.hits = meterRegistry.counter("semantic.cache.requests", "result", "hit");
+        this.misses = meterRegistry.counter("semantic.cache.requests", "result", "miss");
+        this.latencySaved = meterRegistry.timer("semantic.cache.latency.saved");
+        Gauge.builder("semantic.cache.hit.ratio", this, SemanticCache::hitRatio).register(meterRegistry);
+        Gauge.builder("semantic.cache.size", this, SemanticCache::size).register(meterRegistry);
+    }
+
+    /**
+     * Returns the documents of a semantically equivalent cached question, or runs the search and caches its result.
+     * The query is embedded exactly as the search embeds it, so on a miss the search's own embedding is a hit
+     * in the caching embedding model and every question is embedded only once.
+     *
+     * @param topic  the catalog topic the question was asked under; questions only match within the same topic
+     * @param query  the search query built from the student's question
+     * @param search the similarity search for the query, run on a miss
+     * @return the cached or freshly retrieved documents
+     */
+    public List<Document> get(Topic topic, String query, Supplier<List<Document>> search) {
+        if (!enabled) {
+            return search.get();
+        }
+        long start = System.nanoTime();
+        float[] embedding = normalize(embeddingModel.embed(query));
+        TopicIndex index = topics.computeIfAbsent(topic.name(), key -> new TopicIndex());
+
+        Entry match = index.nearest(embedding, 1 - maxDistance, start - timeToLiveNanos);
+        if (match != null) {
+            hits.increment();
+            long saved = match.searchNanos() - (System.nanoTime() - start);
+            if (saved > 0) {
+                latencySaved.record(Duration.ofNanos(saved));
+            }
+            return match.documents();
+        }
+
+        misses.increment();
+        long searchStart = System.nanoTime();
+        List<Document> documents = search.get();
+        index.add(new Entry(embedding, documents, System.nanoTime() - searchStart, System.nanoTime()), maxEntriesPerTopic);
+        return documents;
+    }
+
+    /**
+     * Drops every cached question, for example after new documents were added to the vector store.
+     */
+    public void invalidateAll() {
+        topics.clear();
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    private int size() {
+        return topics.values().stream().mapToInt(index -> index.entries.size()).sum();
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private record Entry(float[] embedding, List<Document> documents, long searchNanos, long createdNanos) {
+    }
+
+    /**
+     * The recent questions of one topic, newest first. Readers scan an immutable snapshot without locking.
+     */
+    private static final class TopicIndex {
+        private volatile List<Entry> entries = List.of();
+
+        Entry nearest(float[] embedding, double minSimilarity, long notBeforeNanos) {
+            Entry best = null;
+            double bestSimilarity = minSimilarity;
+            for (Entry entry : entries) {
+                if (entry.createdNanos() - notBeforeNanos < 0) {
+                    break;
+                }
+                double similarity = dot(embedding, entry.embedding());
+                if (similarity >= bestSimilarity) {
+                    best = entry;
+                    bestSimilarity = similarity;
+                }
+            }
+            return best;
+        }
+
+        synchronized void add(Entry entry, int maxEntries) {
+            List<Entry> updated = new ArrayList<>(Math.min(entries.size() + 1, maxEntries));
+            updated.add(entry);
+            for (int i = 0; i < entries.size() && updated.size() < maxEntries; i++) {
+                updated.add(entries.get(i));
+            }
+            entries = List.copyOf(updated);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import java.util.List;
+
+/**
+ * Stores the recent questions of each tutoring session.
+ * Sessions that stay idle longer than the configured timeout are forgotten.
+ */
+public interface SessionStore {
+
+    /**
+     * Returns the stored turns of a session.
+     *
+     * @param sessionId the session to look up
+     * @return the turns, oldest first, or an empty list for an unknown or expired session
+     */
+    List<SessionTurn> turns(String sessionId);
+
+    /**
+     * Appends a turn to a session, dropping its oldest turns beyond {@code maxTurns}, and returns the turns
+     * that preceded it. The append and the snapshot happen atomically, so concurrent requests for the same
+     * session each see a consistent history that includes every turn appended before their own.
+     *
+     * @param sessionId the session to append to
+     * @param turn      the new turn
+     * @param maxTurns  the number of turns to keep for the session
+     * @return the turns of the session before {@code turn} was appended, oldest first
+     */
+    List<SessionTurn> appendAndSnapshot(String sessionId, SessionTurn turn, int maxTurns);
+
+    /**
+     * @return the number of sessions currently stored
+     */
+    long size();
+}
@@ -0,0 +1,24 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import java.util.List;
+
+/**
+ * One question of a tutoring session. The retrieved chapter text is not repeated here;
+ * only the IDs of the retrieved documents are kept and resolved again when the prompt is built.
+ *
+ * @param userMessage the student's question
+ * @param documentIds the IDs of the documents retrieved for the question
+ */
+public record SessionTurn(String userMessage, List<String> documentIds) {
+
+    public SessionTurn {
+        documentIds = List.copyOf(documentIds);
+    }
+
+    /**
+     * @return the approximate number of bytes this turn occupies on the heap
+     */
+    public int estimatedBytes() {
+        return 64 + 2 * userMessage.length() + 80 * documentIds.size();
+    }
+}
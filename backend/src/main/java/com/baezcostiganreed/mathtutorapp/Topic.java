@@ -0,0 +1,42 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.util.List;
+
+
+/**
+ * A topic of the catalog with the textbook chapters that cover it.
+ *
+ * @param name             the topic's name
+ * @param chapters         the chapters covering the topic
+ * @param fileNames        the distinct textbooks of those chapters
+ * @param filterExpression the vector store filter that limits a search to the chapters
+ */
+public record Topic(String name, List<ChapterRange> chapters, List<String> fileNames, Filter.Expression filterExpression) {
+
+    /**
+     * Creates a topic, precompiling its file names and filter expression.
+     */
+    public static Topic of(String name, List<ChapterRange> chapters) {
+        return new Topic(name, List.copyOf(chapters),
+                chapters.stream().map(ChapterRange::fileName).distinct().toList(),
+                chapterFilter(chapters));
+    }
+
+    /**
+     * @return the vector store filter that matches the pages of the chapters, or null for no chapters
+     */
+    public static Filter.Expression chapterFilter(List<ChapterRange> chapters) {
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        FilterExpressionBuilder.Op filter = null;
+        for (ChapterRange chapter : chapters) {
+            FilterExpressionBuilder.Op range = b.and(
+                    b.and(b.eq("file_name", chapter.fileName()), b.gte("page_number", chapter.firstPage())),
+                    b.lte("page_number", chapter.lastPage()));
+            filter = filter == null ? range : b.or(filter, range);
+        }
+        return filter == null ? null : filter.build();
+    }
+}
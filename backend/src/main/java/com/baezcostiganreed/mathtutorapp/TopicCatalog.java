@@ -0,0 +1,134 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+
+/**
+ * The catalog of topics and the textbook chapters that cover them, loaded from a JSON file that maps every
+ * topic to a list of {@code {fileName, firstPage, lastPage}} ranges.
+ * The catalog is held as an immutable map of precompiled {@link Topic}s that is swapped atomically
+ * when the file changes, so lookups are O(1) and never see a half-loaded catalog.
+ */
+@Component
+public class TopicCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(TopicCatalog.class);
+
+    private static final TypeReference<Map<String, List<ChapterRange>>> CATALOG_TYPE = new TypeReference<>() {
+    };
+
+    private final Resource location;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private volatile Map<String, Topic> topics = Map.of();
+    private volatile String contentHash = "";
+    private volatile List<String> problems = List.of();
+
+    /**
+     * Constructs a new topic catalog.
+     *
+     * @param location       the JSON file the catalog is loaded from
+     * @param objectMapper   the mapper used to read the file
+     * @param eventPublisher the publisher a {@link TopicCatalogReloadedEvent} is sent through after every reload
+     */
+    public TopicCatalog(@Value("${mathtutor.topics.location:classpath:/topics/catalog.json}") Resource location,
+                        ObjectMapper objectMapper, ApplicationEventPublisher eventPublisher) {
+        this.location = location;
+        this.objectMapper = objectMapper;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        if (!reload()) {
+            throw new IllegalStateException("Topic catalog could not be loaded from " + location);
+        }
+    }
+
+    /**
+     * Reloads the catalog if the file changed since it was last loaded. A file that cannot be read or contains
+     * invalid ranges is rejected, and the previously loaded catalog stays in use.
+     */
+    @Scheduled(initialDelayString = "${mathtutor.topics.reload-interval:30s}", fixedDelayString = "${mathtutor.topics.reload-interval:30s}")
+    public void reloadIfChanged() {
+        reload();
+    }
+
+    private synchronized boolean reload() {
+        try {
+            String hash = ContentHash.of(location);
+            if (hash.equals(contentHash)) {
+                return true;
+            }
+            Map<String, List<ChapterRange>> chapters;
+            try (InputStream in = location.getInputStream()) {
+                chapters = objectMapper.readValue(in, CATALOG_TYPE);
+            }
+            Map<String, Topic> loaded = new LinkedHashMap<>();
+            chapters.forEach((name, ranges) -> {
+                for (ChapterRange range : ranges) {
+                    if (range.fileName() == null || range.firstPage() < 1 || range.lastPage() < range.firstPage()) {
+                        throw new IllegalArgumentException("Invalid chapter range for topic '" + name + "': " + range);
+                    }
+                }
+                loaded.put(normalize(name), Topic.of(normalize(name), ranges));
+            });
+            topics = Map.copyOf(loaded);
+            contentHash = hash;
+            logger.info("Topic catalog loaded from " + location + ": " + loaded.size() + " topics");
+            eventPublisher.publishEvent(new TopicCatalogReloadedEvent(this));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Topic catalog could not be loaded from " + location + ", keeping the previous catalog", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the topic with the given name, if the catalog contains it
+     */
+    public Optional<Topic> find(String name) {
+        return Optional.ofNullable(topics.get(normalize(name)));
+    }
+
+    /**
+     * @return every topic of the catalog
+     */
+    public List<Topic> all() {
+        return List.copyOf(topics.values());
+    }
+
+    /**
+     * Records the problems found when the catalog was last validated against the ingested documents.
+     */
+    public void setProblems(List<String> problems) {
+        this.problems = List.copyOf(problems);
+    }
+
+    /**
+     * @return the problems found when the catalog was last validated against the ingested documents
+     */
+    public List<String> problems() {
+        return problems;
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase();
+    }
+}
@@ -0,0 +1,13 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published after the {@link TopicCatalog} loaded a new version of its file.
+ */
+public class TopicCatalogReloadedEvent extends ApplicationEvent {
+
+    public TopicCatalogReloadedEvent(TopicCatalog source) {
+        super(source);
+    }
+}
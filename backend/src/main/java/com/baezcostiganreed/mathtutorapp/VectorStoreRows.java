@@ -0,0 +1,94 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.jdbc.core.simple.JdbcClient;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+
+/**
+ * Helpers shared by the classes that read and write the rows of the vector_store table, or match the metadata
+ * of its documents: the JSON of the metadata column, documents mapped from result rows, filter keys and query plans.
+ */
+final class VectorStoreRows {
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    private VectorStoreRows() {
+    }
+
+    /**
+     * @return the metadata stored as the JSON text, or an empty mutable map for null
+     * @throws IllegalStateException if the text is not a JSON object
+     */
+    static Map<String, Object> readMetadata(ObjectMapper objectMapper, String metadata) {
+        if (metadata == null) {
+            return new HashMap<>();
+        }
+        try {
+            return objectMapper.readValue(metadata, METADATA_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable document metadata: " + metadata, e);
+        }
+    }
+
+    /**
+     * @return the metadata as JSON text
+     * @throws IllegalStateException if a value cannot be written as JSON
+     */
+    static String writeMetadata(ObjectMapper objectMapper, Map<String, Object> metadata) {
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unwritable document metadata: " + metadata, e);
+        }
+    }
+
+    /**
+     * Maps a result row with id, content and metadata columns to a document.
+     */
+    static Document document(ObjectMapper objectMapper, ResultSet rs, double score) throws SQLException {
+        return Document.builder()
+                .id(rs.getString("id"))
+                .text(rs.getString("content"))
+                .metadata(readMetadata(objectMapper, rs.getString("metadata")))
+                .score(score)
+                .build();
+    }
+
+    /**
+     * @return the metadata key a comparison is on, without the quotes the filter expression parser keeps around
+     * quoted keys
+     */
+    static String metadataKey(Filter.Expression expression) {
+        String key = ((Filter.Key) expression.left()).key();
+        if (key.length() > 1 && (key.startsWith("'") && key.endsWith("'") || key.startsWith("\"") && key.endsWith("\""))) {
+            key = key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+
+    /**
+     * Runs a query under EXPLAIN (ANALYZE, BUFFERS) and logs its plan, for diagnosing slow searches.
+     *
+     * @param search the name of the search, which the logged plan is labelled with
+     */
+    static void explain(JdbcClient jdbcClient, Logger logger, String search, String sql, Map<String, Object> params) {
+        String plan = jdbcClient.sql("EXPLAIN (ANALYZE, BUFFERS) " + sql)
+                .params(params)
+                .query(String.class)
+                .list()
+                .stream()
+                .collect(Collectors.joining("\n"));
+        logger.info(search + " plan:\n" + plan);
+    }
+}
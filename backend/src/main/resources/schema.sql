@@ -9,4 +9,65 @@ CREATE TABLE IF NOT EXISTS vector_store (
     embedding vector(768)
 );
 
-CREATE INDEX ON vector_store USING HNSW (embedding vector_cosine_ops);
\ No newline at end of file
+CREATE INDEX IF NOT EXISTS vector_store_embedding_idx ON vector_store USING HNSW (embedding vector_cosine_ops);
+
+ALTER TABLE vector_store ADD COLUMN IF NOT EXISTS file_name text
+    GENERATED ALWAYS AS (metadata->>'file_name') STORED;
+ALTER TABLE vector_store ADD COLUMN IF NOT EXISTS page_number integer
+    GENERATED ALWAYS AS ((metadata->>'page_number')::integer) STORED;
+
+CREATE INDEX IF NOT EXISTS vector_store_file_page_idx ON vector_store (file_name, page_number);
+
+ALTER TABLE vector_store ADD COLUMN IF NOT EXISTS content_tsv tsvector
+    GENERATED ALWAYS AS (to_tsvector('english', coalesce(content, ''))) STORED;
+
+CREATE INDEX IF NOT EXISTS vector_store_content_tsv_idx ON vector_store USING GIN (content_tsv);
+
+CREATE TABLE IF NOT EXISTS chat_session (
+    session_id text PRIMARY KEY,
+    last_access timestamptz NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS chat_session_last_access_idx ON chat_session (last_access);
+
+CREATE TABLE IF NOT EXISTS chat_session_turn (
+    session_id text NOT NULL REFERENCES chat_session ON DELETE CASCADE,
+    turn_no bigserial,
+    user_message text NOT NULL,
+    document_ids text NOT NULL,
+    PRIMARY KEY (session_id, turn_no)
+);
+
+CREATE TABLE IF NOT EXISTS ingestion_manifest (
+    file_name text PRIMARY KEY,
+    content_hash text NOT NULL,
+    page_count integer NOT NULL,
+    chunk_count integer NOT NULL,
+    status text NOT NULL,
+    updated_at timestamptz NOT NULL DEFAULT now()
+);
+
+CREATE TABLE IF NOT EXISTS ingestion_page (
+    file_name text NOT NULL,
+    page_number integer NOT NULL,
+    page_hash text NOT NULL,
+    PRIMARY KEY (file_name, page_number)
+);
+
+CREATE TABLE IF NOT EXISTS ingestion_chunk (
+    chunk_id uuid PRIMARY KEY,
+    file_name text NOT NULL,
+    page_number integer NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS ingestion_chunk_page_idx ON ingestion_chunk (file_name, page_number);
+
+CREATE TABLE IF NOT EXISTS embedding_cache (
+    content_hash text PRIMARY KEY,
+    embedding real[] NOT NULL,
+    created_at timestamptz NOT NULL DEFAULT now()
+);
+
+ALTER TABLE embedding_cache ADD COLUMN IF NOT EXISTS last_used timestamptz NOT NULL DEFAULT now();
+
+CREATE INDEX IF NOT EXISTS embedding_cache_last_used_idx ON embedding_cache (last_used);
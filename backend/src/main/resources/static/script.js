@@ -100,6 +100,13 @@ document.addEventListener("DOMContentLoaded", function () {
     // IMPORTANT: new ID for the Send button
     const sendButton = document.getElementById("sendButton");
 
+    // One tutoring session per browser tab, so the server can keep this student's history apart
+    let sessionId = sessionStorage.getItem("sessionId");
+    if (!sessionId) {
+        sessionId = crypto.randomUUID();
+        sessionStorage.setItem("sessionId", sessionId);
+    }
+
     // Simple function to sanitize user text for math
     function sanitizeMathMessage(text) {
         return text.replace(/\\\[(.*?)\\\]/g, "\\($1\\)");
@@ -115,7 +122,7 @@ document.addEventListener("DOMContentLoaded", function () {
 
         // Grab the selected topic or default to 'linear equations'
         const topic = window.currentTopic || "linear equations";
-        const eventSource = new EventSource(`/chat?topic=${encodeURIComponent(topic)}&usermessage=${encodeURIComponent(userMessage)}`);
+        const eventSource = new EventSource(`/chat?topic=${encodeURIComponent(topic)}&usermessage=${encodeURIComponent(userMessage)}&sessionId=${encodeURIComponent(sessionId)}`);
 
         let botMessageElement = document.createElement("div");
         botMessageElement.classList.add("message", "bot");
@@ -126,25 +133,35 @@ document.addEventListener("DOMContentLoaded", function () {
 
         let fullMessage = "";
 
-        eventSource.onmessage = function (event) {
-            try {
-                const response = JSON.parse(event.data);
-                const content = response.message?.content || "";
-                fullMessage += content;
-                messageElement.innerHTML = fullMessage;
-                chatBox.scrollTop = chatBox.scrollHeight;
-
-                // Rerender math if MathJax is loaded
-                if (window.MathJax) {
-                    window.MathJax.typesetPromise([messageElement]).catch((err) => console.log(err.message));
-                }
-            } catch (error) {
-                console.error("Error parsing response:", error);
-                console.log("Raw data:", event.data);
+        // Each "delta" event carries the next piece of the answer as a JSON string, which keeps its leading spaces
+        eventSource.addEventListener("delta", function (event) {
+            fullMessage += JSON.parse(event.data);
+            messageElement.innerHTML = fullMessage;
+            chatBox.scrollTop = chatBox.scrollHeight;
+
+            // Rerender math if MathJax is loaded
+            if (window.MathJax) {
+                window.MathJax.typesetPromise([messageElement]).catch((err) => console.log(err.message));
             }
-        };
+        });
+
+        // The "done" event ends the answer and carries its timing statistics
+        eventSource.addEventListener("done", function (event) {
+            console.debug("Answer stats:", event.data);
+            eventSource.close();
+        });
+
+        // The "failed" event ends an answer that could not be generated, for example because the tutor is busy
+        eventSource.addEventListener("failed", function (event) {
+            displayMessage(event.data, "bot");
+            eventSource.close();
+        });
 
         eventSource.onerror = function (event) {
+            // While the connection is being re-established, the browser resumes the answer with Last-Event-ID
+            if (eventSource.readyState === EventSource.CONNECTING) {
+                return;
+            }
             console.error("EventSource failed:", event);
             if (fullMessage.length === 0) {
                 displayMessage("Error: Could not fetch response.", "bot");
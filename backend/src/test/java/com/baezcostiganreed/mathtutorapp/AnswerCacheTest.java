@@ -0,0 +1,55 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.ollama.api.OllamaApi;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnswerCacheTest {
+    private final AnswerCache cache = new AnswerCache(true, 1 << 20, Duration.ofHours(1), Duration.ZERO, new SimpleMeterRegistry());
+
+    @Test
+    void replaysRecordedAnswers() {
+        String key = AnswerCache.key("fractions", "What is a fraction?", List.of("b", "a"), "v1");
+        cache.record(key, generation("stop", "A fraction ", "names part\nof a whole.")).blockLast();
+
+        List<OllamaApi.ChatResponse> replayed = cache.replay(AnswerCache.key("Fractions", "  what is a   fraction ", List.of("a", "b"), "v1"))
+                .orElseThrow()
+                .collectList()
+                .block();
+
+        assertThat(replayed.stream().map(response -> response.message().content()).collect(Collectors.joining()))
+                .isEqualTo("A fraction names part\nof a whole.");
+        assertThat(replayed.get(replayed.size() - 1).done()).isTrue();
+        assertThat(replayed).allSatisfy(response -> assertThat(response.model()).isEqualTo(AnswerCache.CACHE_MODEL));
+    }
+
+    @Test
+    void skipsTruncatedAnswersAndOtherFingerprints() {
+        String key = AnswerCache.key("fractions", "What is a fraction?", List.of("a"), "v1");
+        cache.record(key, generation("length", "A fraction names")).blockLast();
+        assertThat(cache.replay(key)).isEmpty();
+
+        cache.record(key, generation("stop", "A fraction names part of a whole.")).blockLast();
+        assertThat(cache.replay(key)).isPresent();
+        assertThat(cache.replay(AnswerCache.key("fractions", "What is a fraction?", List.of("a"), "v2"))).isEmpty();
+    }
+
+    private static Flux<OllamaApi.ChatResponse> generation(String doneReason, String... tokens) {
+        Flux<OllamaApi.ChatResponse> responses = Flux.fromArray(tokens).map(token -> response(token, null));
+        return responses.concatWith(Flux.just(response("", doneReason)));
+    }
+
+    private static OllamaApi.ChatResponse response(String content, String doneReason) {
+        return new OllamaApi.ChatResponse("phi4-mini", Instant.now(),
+                OllamaApi.Message.builder(OllamaApi.Message.Role.ASSISTANT).content(content).build(),
+                doneReason, doneReason != null, null, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,175 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CachingEmbeddingModelTest {
+    private final CountingModel model = new CountingModel();
+    private final CachingEmbeddingModel cache = new CachingEmbeddingModel(model, null, null, "nomic-embed-text",
+            1 << 20, false, Duration.ofDays(30), 32, Duration.ofMillis(20), 2, Duration.ofSeconds(10), new SimpleMeterRegistry());
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        cache.shutdown();
+    }
+
+    @Test
+    void servesRepeatedTextsFromMemory() {
+        float[] first = cache.embed("What is the LCD of 1/3 and 1/4?");
+        float[] second = cache.embed("What is the LCD of 1/3 and 1/4?");
+
+        assertThat(second).isEqualTo(first);
+        assertThat(model.requests).hasSize(1);
+    }
+
+    @Test
+    void embedsDuplicatesWithinARequestOnce() {
+        List<float[]> embeddings = cache.embed(List.of("boilerplate", "page one", "boilerplate"));
+
+        assertThat(embeddings.get(2)).isEqualTo(embeddings.get(0));
+        assertThat(model.requests).singleElement().isEqualTo(List.of("boilerplate", "page one"));
+    }
+
+    @Test
+    void rejectsRequestsForAnotherModel() {
+        EmbeddingOptions otherModel = EmbeddingOptionsBuilder.builder().withModel("mxbai-embed-large").build();
+
+        assertThatThrownBy(() -> cache.call(new EmbeddingRequest(List.of("What is a fraction?"), otherModel)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(cache.call(new EmbeddingRequest(List.of("What is a fraction?"),
+                EmbeddingOptionsBuilder.builder().withModel("nomic-embed-text").build())).getResults()).hasSize(1);
+        assertThat(model.requests).hasSize(1);
+    }
+
+    @Test
+    void collapsesAndBatchesConcurrentRequests() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<CompletableFuture<float[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            String text = "question " + (i % 4);
+            futures.add(CompletableFuture.supplyAsync(() -> cache.embed(text), executor));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get();
+        executor.shutdown();
+
+        assertThat(model.requests.stream().mapToInt(List::size).sum()).isEqualTo(4);
+        assertThat(model.requests.size()).isLessThan(4);
+    }
+
+    @Test
+    void failsTheRequestWhenTheModelThrowsAnError() {
+        CachingEmbeddingModel crashing = stubbed(() -> {
+            throw new AssertionError("model crashed");
+        }, Duration.ofSeconds(10));
+
+        assertThatThrownBy(() -> crashing.embed("What is a fraction?")).hasRootCauseInstanceOf(AssertionError.class);
+        crashing.shutdown();
+    }
+
+    @Test
+    void failsTheRequestAfterTheTimeout() {
+        CachingEmbeddingModel stalled = stubbed(this::awaitRelease, Duration.ofMillis(200));
+
+        assertThatThrownBy(() -> stalled.embed("What is a fraction?"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("within");
+        stalled.shutdown();
+    }
+
+    @Test
+    void failsPendingRequestsOnShutdown() throws Exception {
+        CachingEmbeddingModel stalled = stubbed(this::awaitRelease, Duration.ofMinutes(1));
+        CompletableFuture<float[]> first = CompletableFuture.supplyAsync(() -> stalled.embed("What is a fraction?"));
+        CompletableFuture<float[]> second = CompletableFuture.supplyAsync(() -> stalled.embed("What is a decimal?"));
+        Thread.sleep(100);
+
+        stalled.shutdown();
+
+        assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS)).hasRootCauseMessage("Embedding model nomic-embed-text is shut down");
+        assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS)).hasRootCauseMessage("Embedding model nomic-embed-text is shut down");
+    }
+
+    private CachingEmbeddingModel stubbed(Runnable behavior, Duration timeout) {
+        return new CachingEmbeddingModel(new StubModel(behavior), null, null, "nomic-embed-text",
+                1 << 20, false, Duration.ofDays(30), 32, Duration.ofMillis(20), 2, timeout, new SimpleMeterRegistry());
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the behavior, which may block or throw, before embedding every text as a unit vector.
+     */
+    private static final class StubModel implements EmbeddingModel {
+        private final Runnable behavior;
+
+        StubModel(Runnable behavior) {
+            this.behavior = behavior;
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            behavior.run();
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(new float[]{1}, embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+    }
+
+    /**
+     * Embeds every text as its length and hash code, and records the texts of every call.
+     */
+    private static final class CountingModel implements EmbeddingModel {
+        private final List<List<String>> requests = new CopyOnWriteArrayList<>();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            requests.add(request.getInstructions());
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(new float[]{text.length(), text.hashCode()}, embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatEventStreamTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final ChatEventStream stream = new ChatEventStream(OBJECT_MAPPER, 16, Duration.ofMillis(50),
+            Duration.ofSeconds(15), Duration.ofSeconds(10), Duration.ofMinutes(2), 1 << 20, new SimpleMeterRegistry());
+
+    @Test
+    void coalescesTokensAndEndsWithStats() {
+        List<ServerSentEvent<String>> events = stream.start(tokens(40)).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(events).hasSize(4);
+        assertThat(events.subList(0, 3)).extracting(ServerSentEvent::event).containsOnly(ChatEventStream.DELTA);
+        assertThat(received(events.subList(0, 3)))
+                .isEqualTo(IntStream.range(0, 40).mapToObj(i -> "token" + i + " ").collect(Collectors.joining()));
+        ServerSentEvent<String> done = events.get(3);
+        assertThat(done.event()).isEqualTo(ChatEventStream.DONE);
+        assertThat(done.data()).contains("\"evalTokens\":40").contains("\"events\":4");
+    }
+
+    @Test
+    void keepsLeadingSpacesAndNewlinesOfDeltas() {
+        Flux<OllamaApi.ChatResponse> tokens = Flux.just(" The", " answer", "\n\n", " is", " 2.")
+                .map(token -> response(token, false, null))
+                .concatWith(Flux.just(response("", true, 5)));
+
+        List<ServerSentEvent<String>> events = stream.start(tokens).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(received(events.stream().filter(event -> ChatEventStream.DELTA.equals(event.event())).toList()))
+                .isEqualTo(" The answer\n\n is 2.");
+    }
+
+    @Test
+    void endsAStreamResumedAfterTheGracePeriodAsInterrupted() throws InterruptedException {
+        ChatEventStream shortGrace = new ChatEventStream(OBJECT_MAPPER, 16, Duration.ofMillis(50),
+                Duration.ofSeconds(15), Duration.ofMillis(100), Duration.ofMinutes(2), 1 << 20, new SimpleMeterRegistry());
+        Flux<OllamaApi.ChatResponse> endless = Flux.interval(Duration.ofMillis(10)).map(i -> response("token" + i + " ", false, null));
+        ServerSentEvent<String> first = shortGrace.start(endless).blockFirst(Duration.ofSeconds(5));
+        Thread.sleep(300);
+
+        List<ServerSentEvent<String>> resumed = shortGrace.resume(first.id()).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(resumed).singleElement().satisfies(event -> {
+            assertThat(event.event()).isEqualTo(ChatEventStream.DONE);
+            assertThat(event.data()).contains("\"interrupted\":true");
+        });
+    }
+
+    @Test
+    void resumesAfterTheLastReceivedEvent() {
+        List<ServerSentEvent<String>> events = stream.start(tokens(40)).collectList().block(Duration.ofSeconds(5));
+
+        List<ServerSentEvent<String>> resumed = stream.resume(events.get(1).id()).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(resumed).extracting(ServerSentEvent::id).containsExactly(events.get(2).id(), events.get(3).id());
+    }
+
+    @Test
+    void endsFailedGenerationsWithAMessage() {
+        Flux<OllamaApi.ChatResponse> busy = Flux.error(new OllamaBusyException("Too many questions are being answered right now", Duration.ofSeconds(10)));
+
+        List<ServerSentEvent<String>> events = stream.start(busy).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(events).singleElement().satisfies(event -> {
+            assertThat(event.event()).isEqualTo(ChatEventStream.FAILED);
+            assertThat(event.data()).contains("try again in 10 seconds");
+        });
+    }
+
+    @Test
+    void reportsUnknownStreamsAsExpired() {
+        List<ServerSentEvent<String>> resumed = stream.resume("unknown:3").collectList().block(Duration.ofSeconds(5));
+
+        assertThat(resumed).singleElement().satisfies(event -> {
+            assertThat(event.event()).isEqualTo(ChatEventStream.DONE);
+            assertThat(event.data()).contains("expired");
+        });
+    }
+
+    @Test
+    void rejectsMalformedEventIds() {
+        String id = stream.start(tokens(1)).blockFirst(Duration.ofSeconds(5)).id();
+
+        assertThat(ChatEventStream.isEventId(id)).isTrue();
+        assertThat(ChatEventStream.isEventId("abc:not-a-number")).isFalse();
+        assertThat(ChatEventStream.isEventId(id.replaceAll(":\\d+$", ":99999999999999999999"))).isFalse();
+        assertThat(stream.resume("abc:not-a-number").collectList().block(Duration.ofSeconds(5)))
+                .singleElement().satisfies(event -> assertThat(event.data()).contains("expired"));
+    }
+
+    /**
+     * Reassembles the answer the way the browser does: each event goes over the wire as "data:" lines,
+     * EventSource strips one leading space from every line and joins them with newlines, and script.js
+     * parses the result as JSON.
+     */
+    private static String received(List<ServerSentEvent<String>> deltas) {
+        StringBuilder answer = new StringBuilder();
+        for (ServerSentEvent<String> delta : deltas) {
+            String data = Arrays.stream(delta.data().split("\n", -1))
+                    .map(line -> line.startsWith(" ") ? line.substring(1) : line)
+                    .collect(Collectors.joining("\n"));
+            try {
+                answer.append(OBJECT_MAPPER.readValue(data, String.class));
+            } catch (JsonProcessingException e) {
+                throw new AssertionError("Delta is not a JSON string: " + data, e);
+            }
+        }
+        return answer.toString();
+    }
+
+    private static Flux<OllamaApi.ChatResponse> tokens(int count) {
+        Flux<OllamaApi.ChatResponse> tokens = Flux.range(0, count).map(i -> response("token" + i + " ", false, null));
+        return tokens.concatWith(Flux.just(response("", true, count)));
+    }
+
+    private static OllamaApi.ChatResponse response(String content, boolean done, Integer evalCount) {
+        return new OllamaApi.ChatResponse("phi4-mini", Instant.now(),
+                OllamaApi.Message.builder(OllamaApi.Message.Role.ASSISTANT).content(content).build(),
+                done ? "stop" : null, done, done ? 2_000_000_000L : null, done ? 10_000_000L : null, done ? 120 : null,
+                done ? 300_000_000L : null, evalCount, done ? 1_500_000_000L : null);
+    }
+}
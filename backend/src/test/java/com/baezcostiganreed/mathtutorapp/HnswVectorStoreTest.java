@@ -0,0 +1,135 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswVectorStoreTest {
+    private static final int DIMENSIONS = 32;
+    private static final int CHUNKS = 1000;
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random(42);
+    private final List<Document> chunks = new ArrayList<>();
+    private final List<float[]> embeddings = new ArrayList<>();
+
+    HnswVectorStoreTest() {
+        for (int i = 0; i < CHUNKS; i++) {
+            chunks.add(Document.builder()
+                    .id("chunk-" + i)
+                    .text("chunk " + i)
+                    .metadata(Map.of("file_name", i % 2 == 0 ? "prealgebra.pdf" : "algebra.pdf", "page_number", i / 10))
+                    .build());
+            embeddings.add(vector());
+        }
+    }
+
+    @Test
+    void findsNearlyAllExactNeighborsThroughTheGraph() {
+        HnswVectorStore store = store(0, false);
+        store.replace(chunks, embeddings, null);
+
+        int found = 0;
+        for (int query = 0; query < 20; query++) {
+            float[] embedding = vector();
+            List<String> exact = exactNeighbors(embedding, 10);
+            found += (int) store.similaritySearch(embedding, 10, -1, null).stream()
+                    .map(Document::getId)
+                    .filter(exact::contains)
+                    .count();
+        }
+
+        assertThat(found).isGreaterThanOrEqualTo(180);
+    }
+
+    @Test
+    void onlyReturnsDocumentsMatchingTheFilter() {
+        HnswVectorStore store = store(0, false);
+        store.replace(chunks, embeddings, null);
+        Topic topic = Topic.of("Fractions", List.of(new ChapterRange("prealgebra.pdf", 10, 19)));
+
+        List<Document> results = store.similaritySearch(vector(), 5, -1, topic.filterExpression());
+
+        assertThat(results).hasSize(5).allSatisfy(document -> {
+            assertThat(document.getMetadata()).containsEntry("file_name", "prealgebra.pdf");
+            assertThat((Integer) document.getMetadata().get("page_number")).isBetween(10, 19);
+        });
+    }
+
+    @Test
+    void servesTheSameResultsFromAMemoryMappedSnapshot() throws Exception {
+        HnswVectorStore store = store(0, false);
+        store.replace(chunks, embeddings, null);
+        store.delete(List.of("chunk-0", "chunk-1"));
+        store.saveSnapshot();
+
+        HnswVectorStore loaded = store(0, true);
+        loaded.loadSnapshot();
+
+        float[] query = vector();
+        assertThat(loaded.size()).isEqualTo(CHUNKS - 2);
+        assertThat(loaded.similaritySearch(query, 10, -1, null)).extracting(Document::getId)
+                .containsExactlyElementsOf(store.similaritySearch(query, 10, -1, null).stream().map(Document::getId).toList())
+                .doesNotContain("chunk-0", "chunk-1");
+    }
+
+    @Test
+    void savesTheCorpusVersionWithTheSnapshot() throws Exception {
+        HnswVectorStore store = store(0, false);
+        store.replace(chunks, embeddings, "manifest-1");
+        store.saveSnapshot();
+
+        HnswVectorStore loaded = store(0, false);
+        loaded.loadSnapshot();
+        assertThat(loaded.corpusVersion()).isEqualTo("manifest-1");
+
+        loaded.delete(List.of("chunk-0"));
+        assertThat(loaded.corpusVersion()).isNull();
+    }
+
+    private HnswVectorStore store(int exactSearchThreshold, boolean memoryMapped) {
+        return new HnswVectorStore(null, new ObjectMapper(), 16, 100, 64, exactSearchThreshold,
+                directory.resolve("vector-index.hnsw"), memoryMapped);
+    }
+
+    private List<String> exactNeighbors(float[] query, int k) {
+        return IntStream.range(0, CHUNKS).boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> cosine(embeddings.get(i), query)).reversed())
+                .limit(k)
+                .map(i -> chunks.get(i).getId())
+                .toList();
+    }
+
+    private float[] vector() {
+        float[] vector = new float[DIMENSIONS];
+        for (int d = 0; d < DIMENSIONS; d++) {
+            vector[d] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int d = 0; d < a.length; d++) {
+            dot += a[d] * b[d];
+            normA += a[d] * a[d];
+            normB += b[d] * b[d];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+}
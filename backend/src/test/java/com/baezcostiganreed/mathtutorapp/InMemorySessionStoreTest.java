@@ -0,0 +1,82 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InMemorySessionStoreTest {
+    private static final int THREADS = 16;
+    private static final int APPENDS_PER_THREAD = 2_000;
+    private static final int MAX_TURNS = 10;
+
+    @Test
+    void concurrentAppendsToOneSessionStayConsistent() throws Exception {
+        InMemorySessionStore store = new InMemorySessionStore(Duration.ofMinutes(5), 64L * 1024 * 1024);
+        Set<String> predecessors = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < APPENDS_PER_THREAD; i++) {
+                        String message = thread + ":" + i;
+                        List<SessionTurn> snapshot = store.appendAndSnapshot("student", new SessionTurn(message, List.of()), MAX_TURNS);
+
+                        assertThat(snapshot).hasSizeLessThanOrEqualTo(MAX_TURNS);
+                        assertThat(snapshot).extracting(SessionTurn::userMessage).doesNotContain(message);
+                        assertThat(snapshot).extracting(SessionTurn::userMessage).doesNotHaveDuplicates();
+                        assertOwnTurnsInOrder(snapshot, thread);
+                        String predecessor = snapshot.isEmpty() ? "none" : snapshot.getLast().userMessage();
+                        assertThat(predecessors.add(predecessor)).as("two appends saw the same predecessor").isTrue();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(predecessors).hasSize(THREADS * APPENDS_PER_THREAD);
+        assertThat(store.turns("student")).hasSize(MAX_TURNS);
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    void sessionsAreIsolated() {
+        InMemorySessionStore store = new InMemorySessionStore(Duration.ofMinutes(5), 64L * 1024 * 1024);
+        store.appendAndSnapshot("a", new SessionTurn("first", List.of("1")), MAX_TURNS);
+
+        assertThat(store.appendAndSnapshot("b", new SessionTurn("second", List.of()), MAX_TURNS)).isEmpty();
+        assertThat(store.turns("a")).containsExactly(new SessionTurn("first", List.of("1")));
+    }
+
+    private static void assertOwnTurnsInOrder(List<SessionTurn> snapshot, int thread) {
+        int last = -1;
+        for (SessionTurn turn : snapshot) {
+            String[] parts = turn.userMessage().split(":");
+            if (Integer.parseInt(parts[0]) == thread) {
+                int index = Integer.parseInt(parts[1]);
+                assertThat(index).isGreaterThan(last);
+                last = index;
+            }
+        }
+    }
+}
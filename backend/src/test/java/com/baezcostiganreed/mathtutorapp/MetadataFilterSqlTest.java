@@ -0,0 +1,30 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class MetadataFilterSqlTest {
+
+    @Test
+    void matchesChaptersOnTheTypedColumns() {
+        MetadataFilterSql sql = MetadataFilterSql.of(Topic.chapterFilter(List.of(
+                new ChapterRange("prealgebra.pdf", 10, 19), new ChapterRange("algebra.pdf", 3, 5))));
+
+        assertThat(sql.sql()).isEqualTo("\n  AND (((file_name = :filter0 AND page_number >= :filter1) AND page_number <= :filter2)"
+                + " OR ((file_name = :filter3 AND page_number >= :filter4) AND page_number <= :filter5))");
+        assertThat(sql.params()).containsEntry("filter0", "prealgebra.pdf").containsEntry("filter1", 10)
+                .containsEntry("filter5", 5);
+    }
+
+    @Test
+    void rejectsKeysThatAreNotIdentifiers() {
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+
+        assertThatIllegalArgumentException().isThrownBy(() -> MetadataFilterSql.of(b.eq("x' OR '1'='1", "y").build()));
+    }
+}
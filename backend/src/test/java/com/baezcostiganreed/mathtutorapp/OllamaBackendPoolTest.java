@@ -0,0 +1,160 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.ollama.api.OllamaApi;
+import reactor.core.Disposable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OllamaBackendPoolTest {
+    private final List<StubOllama> servers = new ArrayList<>();
+
+    @AfterEach
+    void stopServers() {
+        servers.forEach(server -> server.http.stop(0));
+    }
+
+    @Test
+    void failsOverToAnotherBackendBeforeTheFirstToken() throws IOException {
+        StubOllama broken = start(false);
+        StubOllama healthy = start(true);
+        OllamaBackendPool pool = pool(4, broken, healthy);
+
+        assertThat(answer(pool)).isEqualTo("Half of four is two.");
+        assertThat(broken.chats.get()).isEqualTo(1);
+        assertThat(pool.backends().get(0).isEjected()).isTrue();
+
+        assertThat(answer(pool)).isEqualTo("Half of four is two.");
+        assertThat(broken.chats.get()).isEqualTo(1);
+        assertThat(healthy.chats.get()).isEqualTo(2);
+    }
+
+    @Test
+    void probesEjectedBackendsBackIntoRotation() throws IOException {
+        StubOllama flaky = start(false);
+        OllamaBackendPool pool = pool(4, flaky);
+
+        assertThat(pool.streamingChat(request()).onErrorComplete().collectList().block(Duration.ofSeconds(10))).isEmpty();
+        assertThat(pool.backends().get(0).isEjected()).isTrue();
+
+        flaky.healthy.set(true);
+        pool.probeEjectedBackends();
+
+        assertThat(pool.backends().get(0).isEjected()).isFalse();
+        assertThat(answer(pool)).isEqualTo("Half of four is two.");
+    }
+
+    @Test
+    void streamsAtMostTheConfiguredNumberOfGenerationsPerBackend() throws IOException {
+        StubOllama first = start(true);
+        StubOllama second = start(true);
+        first.hold = new CountDownLatch(1);
+        second.hold = first.hold;
+        OllamaBackendPool pool = pool(1, first, second);
+
+        Disposable firstStream = pool.streamingChat(request()).subscribe();
+        Disposable secondStream = pool.streamingChat(request()).subscribe();
+
+        assertThat(pool.backends()).allSatisfy(backend -> assertThat(backend.inFlight()).isEqualTo(1));
+        assertThatThrownBy(() -> answer(pool)).hasMessageContaining("free slot");
+
+        first.hold.countDown();
+        firstStream.dispose();
+        secondStream.dispose();
+    }
+
+    private OllamaBackendPool pool(int maxConcurrent, StubOllama... stubs) {
+        List<String> urls = new ArrayList<>();
+        for (StubOllama stub : stubs) {
+            urls.add("http://localhost:" + stub.http.getAddress().getPort());
+        }
+        return new OllamaBackendPool(urls, maxConcurrent, Duration.ofSeconds(2), Duration.ofSeconds(5), Duration.ofSeconds(5), 1,
+                new SimpleMeterRegistry());
+    }
+
+    private static String answer(OllamaBackendPool pool) {
+        return pool.streamingChat(request())
+                .map(response -> response.message().content())
+                .collect(Collectors.joining())
+                .block(Duration.ofSeconds(10));
+    }
+
+    private static OllamaApi.ChatRequest request() {
+        return OllamaApi.ChatRequest.builder("phi4-mini")
+                .stream(true)
+                .messages(List.of(OllamaApi.Message.builder(OllamaApi.Message.Role.USER).content("What is half of four?").build()))
+                .build();
+    }
+
+    private StubOllama start(boolean healthy) throws IOException {
+        StubOllama stub = new StubOllama(healthy);
+        servers.add(stub);
+        return stub;
+    }
+
+    /**
+     * An HTTP server answering /api/chat with an NDJSON stream and /api/tags with an empty model list,
+     * or with 500 while it is unhealthy. Chats are answered once the hold, if any, is released.
+     */
+    private static final class StubOllama {
+        private final HttpServer http;
+        private final AtomicBoolean healthy;
+        private final AtomicInteger chats = new AtomicInteger();
+        private volatile CountDownLatch hold;
+
+        StubOllama(boolean healthy) throws IOException {
+            this.healthy = new AtomicBoolean(healthy);
+            this.http = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            http.createContext("/api/chat", exchange -> {
+                chats.incrementAndGet();
+                if (hold != null) {
+                    try {
+                        hold.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                respond(exchange, "application/x-ndjson", line("Half of four ", false) + line("is two.", true));
+            });
+            http.createContext("/api/tags", exchange -> respond(exchange, "application/json", "{\"models\":[]}"));
+            http.start();
+        }
+
+        private void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+            exchange.getRequestBody().readAllBytes();
+            if (!healthy.get()) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+
+        private static String line(String content, boolean done) {
+            return "{\"model\":\"phi4-mini\",\"created_at\":\"2025-01-01T00:00:00Z\",\"message\":{\"role\":\"assistant\",\"content\":\""
+                    + content + "\"},\"done\":" + done + "}\n";
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.contextpropagation.ObservationThreadLocalAccessor;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OllamaGatewayTest {
+
+    private static OllamaBackendPool pool() {
+        return new OllamaBackendPool(List.of("http://localhost:11434"), 1, Duration.ofSeconds(1), Duration.ofSeconds(1),
+                Duration.ofSeconds(1), 1, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void queuesBeyondConcurrencyAndRejectsWhenQueueIsFull() {
+        OllamaGateway gateway = new OllamaGateway(pool(), 1, Duration.ofMinutes(1), Duration.ofSeconds(5), new SimpleMeterRegistry(),
+                ObservationRegistry.NOOP);
+        Sinks.Many<String> first = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> received = new ArrayList<>();
+        AtomicReference<Throwable> rejected = new AtomicReference<>();
+
+        gateway.submit(first::asFlux).subscribe(received::add);
+        gateway.submit(() -> Flux.just("second")).subscribe(received::add);
+        gateway.submit(() -> Flux.just("third")).subscribe(received::add, rejected::set);
+
+        assertThat(gateway.isSaturated()).isTrue();
+        assertThat(rejected.get()).isInstanceOf(OllamaBusyException.class);
+        assertThat(received).isEmpty();
+
+        first.tryEmitNext("first");
+        first.tryEmitComplete();
+
+        assertThat(received).containsExactly("first", "second");
+        assertThat(gateway.isSaturated()).isFalse();
+    }
+
+    @Test
+    void releasesTheSlotWhenTheClientCancels() {
+        OllamaGateway gateway = new OllamaGateway(pool(), 0, Duration.ofMinutes(1), Duration.ofSeconds(5), new SimpleMeterRegistry(),
+                ObservationRegistry.NOOP);
+
+        Disposable stream = gateway.submit(Flux::never).subscribe();
+        assertThat(gateway.isSaturated()).isTrue();
+        stream.dispose();
+
+        List<String> received = new ArrayList<>();
+        gateway.submit(() -> Flux.just("next")).subscribe(received::add);
+        assertThat(received).containsExactly("next");
+    }
+
+    @Test
+    void rejectsRequestsThatWaitTooLong() {
+        OllamaGateway gateway = new OllamaGateway(pool(), 1, Duration.ofMillis(50), Duration.ofSeconds(5), new SimpleMeterRegistry(),
+                ObservationRegistry.NOOP);
+        gateway.submit(Flux::never).subscribe();
+
+        Throwable error = null;
+        try {
+            gateway.submit(() -> Flux.just("late")).blockLast(Duration.ofSeconds(5));
+        } catch (OllamaBusyException e) {
+            error = e;
+        }
+
+        assertThat(error).isInstanceOf(OllamaBusyException.class);
+        assertThat(gateway.isSaturated()).isFalse();
+    }
+
+    @Test
+    void observesTheWaitForASlotWithinTheCallersObservation() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ObservationRegistry observationRegistry = ObservationRegistry.create();
+        List<Observation.Context> started = new ArrayList<>();
+        observationRegistry.observationConfig()
+                .observationHandler(new DefaultMeterObservationHandler(meterRegistry))
+                .observationHandler(new ObservationHandler<>() {
+                    @Override
+                    public void onStart(Observation.Context context) {
+                        started.add(context);
+                    }
+
+                    @Override
+                    public boolean supportsContext(Observation.Context context) {
+                        return true;
+                    }
+                });
+        OllamaGateway gateway = new OllamaGateway(pool(), 1, Duration.ofMinutes(1), Duration.ofSeconds(5), meterRegistry,
+                observationRegistry);
+        Observation chat = Observation.start("chat", observationRegistry);
+
+        gateway.submit(() -> Flux.just("token"))
+                .contextWrite(Context.of(ObservationThreadLocalAccessor.KEY, chat))
+                .blockLast(Duration.ofSeconds(5));
+        chat.stop();
+
+        assertThat(meterRegistry.get("ollama.gateway.queue.wait").timer().count()).isEqualTo(1);
+        assertThat(started).filteredOn(context -> context.getName().equals("ollama.gateway.queue.wait"))
+                .singleElement()
+                .satisfies(context -> assertThat(context.getParentObservation()).isSameAs(chat));
+    }
+}
@@ -0,0 +1,60 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.ollama.api.OllamaApi;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PromptAssemblerTest {
+    private static final String CHAPTER = "A fraction names part of a whole. ".repeat(40);
+
+    @Test
+    void keepsEverythingWithinBudget() {
+        PromptAssembler assembler = new PromptAssembler(10_000, 4, new SimpleMeterRegistry());
+
+        AssembledPrompt prompt = assembler.assemble("system",
+                List.of(new PromptTurn("first", CHAPTER)), new PromptTurn("second", CHAPTER));
+
+        assertThat(prompt.messages()).extracting(OllamaApi.Message::role).containsExactly(
+                OllamaApi.Message.Role.SYSTEM,
+                OllamaApi.Message.Role.USER, OllamaApi.Message.Role.TOOL,
+                OllamaApi.Message.Role.USER, OllamaApi.Message.Role.TOOL);
+        assertThat(prompt.droppedTurns()).isZero();
+        assertThat(prompt.droppedContexts()).isZero();
+    }
+
+    @Test
+    void dropsOlderContextBeforeQuestions() {
+        PromptAssembler assembler = new PromptAssembler(1_000, 4, new SimpleMeterRegistry());
+        int chapterTokens = assembler.count(CHAPTER);
+        List<PromptTurn> history = List.of(
+                new PromptTurn("oldest", CHAPTER),
+                new PromptTurn("older", CHAPTER),
+                new PromptTurn("newer", CHAPTER));
+
+        AssembledPrompt prompt = assembler.assemble("system", history, new PromptTurn("newest", CHAPTER));
+
+        assertThat(chapterTokens * 2).isLessThan(1_000);
+        assertThat(prompt.promptTokens()).isLessThanOrEqualTo(1_000);
+        assertThat(prompt.historyTurns()).isEqualTo(3);
+        assertThat(prompt.droppedContexts()).isEqualTo(2);
+        assertThat(prompt.messages()).extracting(OllamaApi.Message::content).containsSubsequence(
+                "oldest", "older", "newer", CHAPTER, "newest", CHAPTER);
+        assertThat(prompt.messages()).hasSize(7);
+    }
+
+    @Test
+    void truncatesCurrentContextThatExceedsBudget() {
+        PromptAssembler assembler = new PromptAssembler(200, 4, new SimpleMeterRegistry());
+
+        AssembledPrompt prompt = assembler.assemble("system",
+                List.of(new PromptTurn("first", CHAPTER)), new PromptTurn("second", CHAPTER));
+
+        assertThat(prompt.promptTokens()).isLessThanOrEqualTo(200);
+        assertThat(prompt.droppedTurns()).isEqualTo(1);
+        assertThat(prompt.messages().getLast().content()).isNotEmpty().hasSizeLessThan(CHAPTER.length());
+    }
+}
@@ -0,0 +1,35 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReciprocalRankFusionTest {
+
+    @Test
+    void ranksDocumentsFoundByBothSearchesFirst() {
+        List<Document> vector = List.of(document("a"), document("b"), document("c"));
+        List<Document> text = List.of(document("d"), document("c"), document("a"));
+
+        List<Document> fused = ReciprocalRankFusion.fuse(List.of(vector, text), 60, 3);
+
+        assertThat(fused).extracting(Document::getId).containsExactly("a", "c", "d");
+        assertThat(fused.get(0).getScore()).isEqualTo(1.0 / 61 + 1.0 / 63);
+    }
+
+    @Test
+    void keepsTheOtherRankingWhenOneIsEmpty() {
+        List<Document> text = List.of(document("x"), document("y"));
+
+        List<Document> fused = ReciprocalRankFusion.fuse(List.of(List.of(), text), 60, 3);
+
+        assertThat(fused).extracting(Document::getId).containsExactly("x", "y");
+    }
+
+    private static Document document(String id) {
+        return Document.builder().id(id).text("chunk " + id).build();
+    }
+}
@@ -0,0 +1,88 @@
+package com.baezcostiganreed.mathtutorapp;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SemanticCacheTest {
+    private static final Topic FRACTIONS = Topic.of("Fractions", List.of(new ChapterRange("prealgebra.pdf", 10, 19)));
+    private static final Topic DECIMALS = Topic.of("Decimals", List.of(new ChapterRange("prealgebra.pdf", 20, 29)));
+
+    private final FixedModel model = new FixedModel(Map.of(
+            "what is a fraction", new float[]{1, 0, 0},
+            "what's a fraction", new float[]{0.99f, 0.1f, 0},
+            "how do I add fractions", new float[]{0.6f, 0.8f, 0}));
+
+    private final AtomicInteger searches = new AtomicInteger();
+
+    @Test
+    void reusesTheResultsOfCloseQueriesWithinATopic() {
+        SemanticCache cache = cache(true);
+
+        List<Document> first = cache.get(FRACTIONS, "what is a fraction", this::search);
+        assertThat(cache.get(FRACTIONS, "what's a fraction", this::search)).isSameAs(first);
+        assertThat(cache.get(FRACTIONS, "how do I add fractions", this::search)).isNotSameAs(first);
+        assertThat(cache.get(DECIMALS, "what is a fraction", this::search)).isNotSameAs(first);
+
+        assertThat(searches).hasValue(3);
+        assertThat(model.calls).hasValue(4);
+    }
+
+    @Test
+    void searchesWithoutEmbeddingWhenDisabled() {
+        SemanticCache cache = cache(false);
+
+        cache.get(FRACTIONS, "what is a fraction", this::search);
+        cache.get(FRACTIONS, "what is a fraction", this::search);
+
+        assertThat(searches).hasValue(2);
+        assertThat(model.calls).hasValue(0);
+    }
+
+    private SemanticCache cache(boolean enabled) {
+        return new SemanticCache(model, enabled, 0.08, 500, Duration.ofMinutes(30), new SimpleMeterRegistry());
+    }
+
+    private List<Document> search() {
+        return List.of(new Document("result " + searches.incrementAndGet()));
+    }
+
+    /**
+     * Embeds every text as the vector it is mapped to, and counts the calls.
+     */
+    private static final class FixedModel implements EmbeddingModel {
+        private final Map<String, float[]> vectors;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        FixedModel(Map<String, float[]> vectors) {
+            this.vectors = vectors;
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            calls.incrementAndGet();
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(vectors.get(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vectors.get(document.getText());
+        }
+    }
+}